@@ -0,0 +1,110 @@
+package com.icthh.xm.ms.configuration.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.icthh.xm.commons.config.domain.Configuration;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serialize and parse cost of the private config map in json, Smile and CBOR.
+ * Payload size is reported as {@code payloadBytes} secondary result of the serialize benchmark.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfigMapEncodingBenchmark {
+
+    private static final TypeReference<Map<String, Configuration>> CONFIG_MAP_TYPE =
+        new TypeReference<Map<String, Configuration>>() { };
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    @Param({"50000"})
+    private int paths;
+
+    private ObjectMapper mapper;
+    private Map<String, Configuration> configMap;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        switch (format) {
+            case "smile":
+                mapper = new ObjectMapper(new SmileFactory());
+                break;
+            case "cbor":
+                mapper = new ObjectMapper(new CBORFactory());
+                break;
+            default:
+                mapper = new ObjectMapper();
+        }
+        configMap = createConfigMap(paths);
+        payload = mapper.writeValueAsBytes(configMap);
+    }
+
+    @Benchmark
+    public byte[] serialize(PayloadSize payloadSize) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(configMap);
+        payloadSize.payloadBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Map<String, Configuration> parse() throws IOException {
+        return mapper.readValue(payload, CONFIG_MAP_TYPE);
+    }
+
+    /**
+     * Config map with tenant specific yml files of typical size, paths and content are similar to the real ones.
+     */
+    private static Map<String, Configuration> createConfigMap(int size) {
+        Map<String, Configuration> configMap = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String path = "/config/tenants/TENANT" + (i % 100) + "/entity/specs/typespecs/spec-" + i + ".yml";
+            configMap.put(path, new Configuration(path, createYml(i)));
+        }
+        return configMap;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long payloadBytes;
+    }
+
+    private static String createYml(int index) {
+        StringBuilder yml = new StringBuilder("---\ntypes:\n");
+        for (int i = 0; i < 5; i++) {
+            yml.append("  - key: \"TYPE-").append(index).append('-').append(i).append("\"\n")
+               .append("    name: {en: \"Type ").append(i).append("\", uk: \"\u0422\u0438\u043f ").append(i).append("\"}\n")
+               .append("    isAbstract: false\n")
+               .append("    dataSpec: '{\"type\": \"object\", \"properties\": {\"field\": {\"type\": \"string\"}}}'\n");
+        }
+        return yml.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.icthh.xm.ms.configuration.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.service.ConfigurationTreeCache;
+import com.icthh.xm.ms.configuration.service.processors.TenantConfigExternalization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyMap;
+
+/**
+ * Measures externalization of tenant-config.yml with many nested keys in a big container environment.
+ * Every nested key is checked against environment variables, so the cost grows with both sizes.
+ * Results are remembered for unchanged content, so changed content is measured separately.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TenantConfigExternalizationBenchmark {
+
+    @Param({"100", "10000"})
+    private int envSize;
+
+    @Param({"1000"})
+    private int configKeys;
+
+    private TenantConfigExternalization externalization;
+    private Configuration configuration;
+    private Configuration changedConfiguration;
+    private long revision;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, String> env = new HashMap<>();
+        for (int i = 0; i < envSize; i++) {
+            env.put("SERVICE_" + i + "_SOME_SETTING", "value" + i);
+        }
+        // overrides of a few nested keys, so the config is processed
+        env.put("XM_SECTION_1_KEY_1", "overridden");
+        env.put("XM_section-2_key-2", "42");
+        externalization = new TenantConfigExternalization(env, new ConfigurationTreeCache(new ApplicationProperties()));
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        for (int i = 0; i < configKeys / 10; i++) {
+            Map<String, Object> section = new LinkedHashMap<>();
+            for (int j = 0; j < 10; j++) {
+                section.put("key-" + j, "value" + j);
+            }
+            config.put("section-" + i, section);
+        }
+        String content = new ObjectMapper(new YAMLFactory()).writeValueAsString(config);
+        configuration = new Configuration("/config/tenants/XM/tenant-config.yml", content);
+    }
+
+    @Setup(Level.Invocation)
+    public void changeContent() {
+        changedConfiguration = new Configuration(configuration.getPath(),
+                                                 configuration.getContent() + "# revision " + revision++ + "\n");
+    }
+
+    /**
+     * Content differs on every call, so it is parsed and externalized.
+     */
+    @Benchmark
+    public List<Configuration> processChangedConfiguration() {
+        return externalization.processConfiguration(changedConfiguration, emptyMap(), emptyMap());
+    }
+
+    /**
+     * Content is the same on every call, so the remembered result is returned.
+     */
+    @Benchmark
+    public List<Configuration> processUnchangedConfiguration() {
+        return externalization.processConfiguration(configuration, emptyMap(), emptyMap());
+    }
+}
@@ -19,6 +19,11 @@ public class ApplicationProperties {
 
     private GitProperties git;
     private final Retry retry = new Retry();
+    private final ConfigMapProperties configMap = new ConfigMapProperties();
+    private final YmlToJsonProperties ymlToJson = new YmlToJsonProperties();
+    private final UploadProperties upload = new UploadProperties();
+    private final ConfigTopicProperties configTopic = new ConfigTopicProperties();
+    private final TreeCacheProperties treeCache = new TreeCacheProperties();
 
     private List<String> tenantIgnoredPathList = Collections.emptyList();
     private boolean kafkaEnabled;
@@ -34,6 +39,12 @@ public class ApplicationProperties {
         private String password;
         private String branchName;
         private Integer maxWaitTimeSecond = 30;
+        /** max total size of uncompressed files of imported zip archive, imported contents are held in memory */
+        private long maxImportBytes = 100 * 1024 * 1024;
+        /** max number of latest commits of each path kept in memory for history requests, older are read from git */
+        private int historyMaxCommitsPerPath = 100;
+        /** max total chars of cached diffs and of cached change lists each, a larger single diff is not cached */
+        private long diffCacheMaxChars = 16 * 1024 * 1024;
         private SshProperties ssh = new SshProperties();
 
         @Getter
@@ -45,6 +56,76 @@ public class ApplicationProperties {
         }
     }
 
+    @Getter
+    @Setter
+    public static class ConfigMapProperties {
+
+        /** max number of change events remembered to answer /config_map/changes requests */
+        private int changesJournalSize = 1000;
+        /** keep gzip encoded config map of the current version for clients that accept gzip */
+        private boolean gzipSnapshotEnabled = true;
+        /** deflate level of gzip snapshot, 1 (fastest) - 9 (smallest), snapshot is built once per version */
+        private int gzipSnapshotLevel = 9;
+        /** time to hold long-poll watch request when there are no changes */
+        private long watchTimeoutMs = 30000;
+        /** max lifetime of watch event stream, client is expected to reconnect with last version */
+        private long watchStreamTimeoutMs = 1800000;
+    }
+
+    @Getter
+    @Setter
+    public static class YmlToJsonProperties {
+
+        /** cache json converted from yml for ?toJson reads */
+        private boolean cacheEnabled = true;
+        /** ant patterns of paths converted to json in advance, when configuration is changed */
+        private List<String> eagerPathPatterns = Collections.emptyList();
+    }
+
+    @Getter
+    @Setter
+    public static class UploadProperties {
+
+        /** max number of uploaded files saved in one commit, files of one batch are held in memory together */
+        private int maxBatchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class ConfigTopicProperties {
+
+        /** time to accumulate changed paths into one config event, every change is sent at once if 0 */
+        private long coalesceWindowMs = 0;
+        /** number of accumulated paths that triggers sending before the window ends */
+        private int coalesceMaxPaths = 10000;
+        /** estimated size of serialized event, that paths of one tenant are split by */
+        private int maxEventBytes = 900000;
+        /** add hashes and content of small configurations to events, so subscribers do not fetch them */
+        private boolean inlineEnabled = false;
+        /** max size of configuration content to be inlined */
+        private int inlineContentMaxBytes = 4096;
+        /** max size of all content inlined into one event */
+        private int inlineMaxBytesPerEvent = 65536;
+        /** folder of outbox file with not delivered events, events are kept only in memory if empty */
+        private String outboxDir;
+        /** number of events sent by outbox relay before waiting for acknowledgements */
+        private int relayBatchSize = 100;
+        /** time to wait for kafka acknowledgement of an event */
+        private long deliveryTimeoutMs = 30000;
+        /** delay before sending not delivered events again */
+        private long retryDelayMs = 5000;
+        /** max number of not delivered events, the oldest ones are dropped when it is exceeded */
+        private int outboxMaxDepth = 10000;
+    }
+
+    @Getter
+    @Setter
+    public static class TreeCacheProperties {
+
+        /** max number of parsed yml and json documents shared between components */
+        private int maxSize = 1000;
+    }
+
     @Getter
     @Setter
     private static class Retry {
@@ -28,5 +28,14 @@ public final class Constants {
     public static final String PROFILE = "/profile";
     public static final String PUBLIC_KEY_FILE = "/public.cer";
     public static final String REFRESH = "/refresh";
+    public static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String APPLICATION_ZIP_VALUE = "application/zip";
+    public static final String EXPORT = "/export";
+    public static final String IMPORT = "/import";
+    public static final String CLONE = "/clone";
+    public static final String HISTORY = "/history";
+    public static final String DIFF = "/diff";
+    public static final String ROLLBACK = "/rollback";
 
 }
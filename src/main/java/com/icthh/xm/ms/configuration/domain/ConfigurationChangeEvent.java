@@ -0,0 +1,31 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import com.icthh.xm.commons.config.domain.ConfigEvent;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Config event with inlined configurations. {@code configs} contains hash of processed content
+ * for changed paths that exist, and the content itself for small ones, so subscribers fetch
+ * only paths without content. Paths absent in {@code configs} were deleted or should be fetched.
+ */
+@Getter
+@Setter
+public class ConfigurationChangeEvent extends ConfigEvent {
+
+    private Map<String, InlinedConfiguration> configs = new LinkedHashMap<>();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class InlinedConfiguration {
+        private String hash;
+        private String content;
+    }
+}
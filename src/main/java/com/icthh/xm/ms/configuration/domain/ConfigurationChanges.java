@@ -0,0 +1,23 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import com.icthh.xm.commons.config.domain.Configuration;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Configurations changed since some commit. If {@code snapshot} is true, the changes can not be calculated
+ * and {@code configurations} contains the full config map. For the config map changes {@code version}
+ * is the map version to request next changes since.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ConfigurationChanges {
+
+    private final String version;
+    private final boolean snapshot;
+    private final Map<String, Configuration> configurations;
+    private final Set<String> deletedPaths;
+}
@@ -0,0 +1,19 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Commit that changed configuration, see configuration history.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ConfigurationCommit {
+
+    private final String commit;
+    private final String author;
+    private final Instant time;
+    private final String message;
+}
@@ -0,0 +1,17 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Changed configuration between two versions. Change type is one of ADD, MODIFY, DELETE, RENAME, COPY,
+ * old path is null for added and new path is null for deleted configurations.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ConfigurationDiff {
+
+    private final String changeType;
+    private final String oldPath;
+    private final String newPath;
+}
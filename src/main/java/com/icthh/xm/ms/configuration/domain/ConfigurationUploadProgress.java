@@ -0,0 +1,29 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Progress of bulk configuration upload, reported after each committed batch.
+ * The last line of a failed upload has the error and the number of the failed batch,
+ * files of the previous batches stay committed.
+ */
+@Getter
+@RequiredArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ConfigurationUploadProgress {
+
+    private final int saved;
+    private final int total;
+    /** number of the batch, starting from 1 */
+    private final int batch;
+    private final int batches;
+    /** commit of the batch, null if the batch failed */
+    private final String commit;
+    private final String error;
+
+    public ConfigurationUploadProgress failed(String error) {
+        return new ConfigurationUploadProgress(saved, total, batch + 1, batches, null, error);
+    }
+}
@@ -0,0 +1,19 @@
+package com.icthh.xm.ms.configuration.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+
+/**
+ * Configuration change reported to watchers. If {@code reset} is true, the storage was reloaded
+ * and any path could be changed, so {@code paths} is empty and the client should reload all watched paths.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ConfigurationWatchEvent {
+
+    private final String version;
+    private final boolean reset;
+    private final Set<String> paths;
+}
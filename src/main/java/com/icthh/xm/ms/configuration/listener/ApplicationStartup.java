@@ -12,8 +12,8 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.BatchMessageListener;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
-import org.springframework.kafka.listener.MessageListener;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.stereotype.Component;
 
@@ -43,10 +43,10 @@ public class ApplicationStartup implements ApplicationListener<ApplicationReadyE
     }
 
     private void createKafkaConsumers() {
-        createSystemConsumer(applicationProperties.getKafkaSystemQueue(), systemQueueConsumer::consumeEvent);
+        createSystemConsumer(applicationProperties.getKafkaSystemQueue(), systemQueueConsumer::consumeEvents);
     }
 
-    private void createSystemConsumer(String name, MessageListener<String, String> consumeEvent) {
+    private void createSystemConsumer(String name, BatchMessageListener<String, String> consumeEvents) {
         log.info("Creating kafka consumer for topic {}", name);
         ContainerProperties containerProps = new ContainerProperties(name);
 
@@ -56,7 +56,7 @@ public class ApplicationStartup implements ApplicationListener<ApplicationReadyE
 
         ConcurrentMessageListenerContainer<String, String> container =
             new ConcurrentMessageListenerContainer<>(factory, containerProps);
-        container.setupMessageListener(consumeEvent);
+        container.setupMessageListener(consumeEvents);
         container.start();
         log.info("Successfully created kafka consumer for topic {}", name);
     }
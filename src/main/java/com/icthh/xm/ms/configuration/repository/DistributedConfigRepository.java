@@ -1,7 +1,9 @@
 package com.icthh.xm.ms.configuration.repository;
 
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -9,6 +11,12 @@ public interface DistributedConfigRepository extends PersistenceConfigRepository
 
     Map<String, Configuration> getMap(String commit);
 
+    Map<String, Configuration> getMap(String commit, Collection<String> paths);
+
+    List<byte[]> getSerializedMap(String commit);
+
+    ConfigurationChanges getChanges(String since);
+
     void updateConfigurationInMemory(Configuration configuration, String commit);
 
     void updateConfigurationsInMemory(List<Configuration> configurations, String commit);
@@ -24,4 +32,8 @@ public interface DistributedConfigRepository extends PersistenceConfigRepository
     void refreshTenant(String tenant);
 
     String getCommitVersion();
+
+    String getMapVersion();
+
+    String getConfigHash(Configuration configuration);
 }
@@ -1,10 +1,20 @@
 package com.icthh.xm.ms.configuration.repository;
 
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
 import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
 import com.icthh.xm.ms.configuration.domain.ConfigurationList;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 public interface PersistenceConfigRepository {
 
@@ -16,12 +26,95 @@ public interface PersistenceConfigRepository {
 
     ConfigurationItem find(String path, String version);
 
+    /**
+     * Get commits that changed configuration, newest first.
+     *
+     * @param path     configuration path
+     * @param pageable page of commits
+     * @return commits
+     */
+    Page<ConfigurationCommit> findHistory(String path, Pageable pageable);
+
+    /**
+     * Get configurations changed between versions, renames are detected.
+     *
+     * @param fromVersion old commit
+     * @param toVersion   new commit, the latest commit if blank
+     * @param pathPrefix  folder or path to compare, all configurations if blank
+     * @return changed configurations
+     */
+    List<ConfigurationDiff> findChanges(String fromVersion, String toVersion, String pathPrefix);
+
+    /**
+     * Get unified diff between versions, see {@link #findChanges(String, String, String)}.
+     *
+     * @return unified diff
+     */
+    String diff(String fromVersion, String toVersion, String pathPrefix);
+
     String saveAll(List<Configuration> configurations);
 
+    /**
+     * Save configurations in one commit, content of each source is copied to the repository as a stream.
+     *
+     * @param sources content sources by configuration path
+     * @return commit
+     */
+    String saveAll(Map<String, ? extends InputStreamSource> sources);
+
     String save(Configuration configuration);
 
     String save(Configuration configuration, String oldConfigHash);
 
+    /**
+     * Update configuration content under the write lock, nothing is committed if content is not changed.
+     *
+     * @param path           configuration path
+     * @param contentUpdater calculates new content from the current one, current content is null if file is absent
+     * @return commit and updated configuration, configuration is null if content was not changed
+     */
+    ConfigurationItem update(String path, UnaryOperator<String> contentUpdater);
+
+    /**
+     * Write zip archive of all configurations under path prefix, blobs are streamed from the git tree of version.
+     *
+     * @param pathPrefix   folder to export, entry names are relative to it
+     * @param version      commit to export, the latest commit if blank
+     * @param outputStream archive output, not closed
+     * @return exported commit
+     */
+    String exportArchive(String pathPrefix, String version, OutputStream outputStream);
+
+    /**
+     * Extract zip archive under path prefix and save all its entries in one commit.
+     *
+     * @param pathPrefix  target folder, entry names are relative to it
+     * @param inputStream archive input
+     * @return commit and imported configurations
+     */
+    ConfigurationList importArchive(String pathPrefix, InputStream inputStream);
+
+    /**
+     * Copy folder to a new folder in one commit, reusing git objects of the source folder.
+     *
+     * @param sourcePrefix folder to copy
+     * @param targetPrefix new folder, should not exist
+     * @return commit and cloned configurations as committed
+     */
+    ConfigurationList cloneFolder(String sourcePrefix, String targetPrefix);
+
+    /**
+     * Restore folder or configuration to its state in version, in one commit on top of the latest one.
+     * Configurations added after version are deleted.
+     *
+     * @param pathPrefix folder or configuration path, the repository root is rejected
+     * @param version    commit to restore from
+     * @return new commit with changed and deleted configurations, the latest commit with no changes if
+     *     the path is the same as in version
+     * @throws IllegalArgumentException if the path is blank or root
+     */
+    ConfigurationChanges rollbackFolder(String pathPrefix, String version);
+
     String deleteAll(List<String> paths);
 
     String delete(String path);
@@ -0,0 +1,169 @@
+package com.icthh.xm.ms.configuration.repository.impl;
+
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Bounded journal of the announced configuration changes. Used to calculate which paths were changed
+ * since some commit without reading the whole config map.
+ * <p>
+ * In-memory changes (tenant refresh, in-memory delete) do not create a commit and are recorded under
+ * the current commit, so a client that knows a commit gets all changes after the commit itself,
+ * including in-memory changes made under it.
+ * <p>
+ * Every entry also has the config map version ({@code commit-revision}) after the change. It is returned
+ * to clients as the cursor of the next request and resolves to exactly that entry, so a client that got
+ * an in-memory change does not receive it again.
+ */
+@Slf4j
+@Component
+public class ConfigChangeJournal {
+
+    private final int maxSize;
+    private final Deque<ChangeEntry> entries = new ArrayDeque<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    /** commit the journal starts from, all changes after it are present in entries, null if unknown */
+    private String baseCommit;
+    /** map version the journal starts from */
+    private String baseVersion;
+    /** commit of the last recorded change */
+    private String lastCommit;
+    /** map version after the last recorded change */
+    private String lastVersion;
+
+    public ConfigChangeJournal(ApplicationProperties applicationProperties) {
+        this.maxSize = applicationProperties.getConfigMap().getChangesJournalSize();
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Record changed paths.
+     *
+     * @param commit  commit of the change
+     * @param version map version after the change
+     * @param paths   changed paths
+     */
+    public void record(String commit, String version, Collection<String> paths) {
+        Set<String> changed = new HashSet<>(paths);
+        synchronized (this) {
+            entries.addLast(new ChangeEntry(commit, version, changed, Objects.equals(commit, lastCommit)));
+            lastCommit = commit;
+            lastVersion = version;
+            while (entries.size() > maxSize) {
+                ChangeEntry evicted = entries.removeFirst();
+                // after an evicted in-memory change the changes made under its commit are incomplete
+                baseCommit = evicted.isInMemory() ? null : evicted.getCommit();
+                baseVersion = evicted.getVersion();
+            }
+        }
+        listeners.forEach(listener -> listener.onChange(version, unmodifiableSet(changed)));
+    }
+
+    /**
+     * Forget all changes, e.g. when storage was reloaded without announcing changes.
+     *
+     * @param commit  commit the storage was reloaded to
+     * @param version map version after reload
+     */
+    public void reset(String commit, String version) {
+        log.info("Reset config change journal to commit {}", commit);
+        synchronized (this) {
+            entries.clear();
+            baseCommit = commit;
+            baseVersion = version;
+            lastCommit = commit;
+            lastVersion = version;
+        }
+        listeners.forEach(listener -> listener.onReset(version));
+    }
+
+    /**
+     * Get map version after the last recorded change.
+     */
+    public synchronized String getVersion() {
+        return lastVersion;
+    }
+
+    /**
+     * Get paths changed after the map version returned earlier, or after commit.
+     *
+     * @param since map version or commit known by client
+     * @return changed paths with the version to request next changes, or empty if since is unknown or too old
+     */
+    public synchronized Optional<Changes> getChangesSince(String since) {
+        if (since == null) {
+            return Optional.empty();
+        }
+
+        Iterator<ChangeEntry> iterator = entries.iterator();
+        if (!since.equals(baseCommit) && !since.equals(baseVersion)) {
+            boolean found = false;
+            while (iterator.hasNext() && !found) {
+                ChangeEntry entry = iterator.next();
+                found = since.equals(entry.getVersion())
+                        || !entry.isInMemory() && Objects.equals(since, entry.getCommit());
+            }
+            if (!found) {
+                return Optional.empty();
+            }
+        }
+
+        Set<String> paths = new HashSet<>();
+        iterator.forEachRemaining(entry -> paths.addAll(entry.getPaths()));
+        return Optional.of(new Changes(lastVersion, paths));
+    }
+
+    /**
+     * Listener of the recorded changes, called in the thread that recorded the change.
+     */
+    public interface ChangeListener {
+
+        /**
+         * @param version map version after the change
+         * @param paths   changed paths
+         */
+        void onChange(String version, Set<String> paths);
+
+        /**
+         * Called when storage was reloaded and any path could be changed.
+         */
+        void onReset(String version);
+    }
+
+    /**
+     * Paths changed since some version.
+     */
+    @Value
+    public static class Changes {
+        /** version to request next changes since */
+        private String version;
+        private Set<String> paths;
+    }
+
+    @Value
+    private static class ChangeEntry {
+        private String commit;
+        private String version;
+        private Set<String> paths;
+        /** recorded under already known commit */
+        private boolean inMemory;
+    }
+}
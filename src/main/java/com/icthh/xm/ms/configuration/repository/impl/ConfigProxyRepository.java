@@ -1,11 +1,15 @@
 package com.icthh.xm.ms.configuration.repository.impl;
 
 import static com.icthh.xm.ms.configuration.utils.ConfigPathUtils.getTenantPathPrefix;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
 import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
 import com.icthh.xm.ms.configuration.domain.ConfigurationList;
 import com.icthh.xm.ms.configuration.repository.DistributedConfigRepository;
@@ -15,20 +19,31 @@ import com.icthh.xm.ms.configuration.service.processors.ConfigurationProcessor;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.Synchronized;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 @Slf4j
 @Component
@@ -40,6 +55,9 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
     private final MemoryConfigStorage storage;
     private final PersistenceConfigRepository persistenceConfigRepository;
     private final ConfigTopicProducer configTopicProducer;
+    private final ConfigChangeJournal changeJournal;
+    /** guards storage updates together with version and journal, so changes are never seen without their paths */
+    private final Object changeLock = new Object();
 
     /**
      * Get internal map config. If commit is not specified, or commit is the same as inmemory,
@@ -50,20 +68,85 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
      */
     @Override
     public Map<String, Configuration> getMap(String commit) {
+        refreshIfNewer(commit);
+        return storage.getPrivateConfigs();
+    }
+
+    /**
+     * Get internal configs by paths or ant patterns, see {@link #getMap(String)}.
+     * Only requested paths are looked up, the whole config map is not built.
+     *
+     * @param commit required commit
+     * @param paths  paths or patterns
+     * @return configs by path
+     */
+    @Override
+    public Map<String, Configuration> getMap(String commit, Collection<String> paths) {
+        refreshIfNewer(commit);
+        return storage.getPrivateConfigs(paths);
+    }
+
+    /**
+     * Get internal map config serialized to json object fields, see {@link #getMap(String)}.
+     *
+     * @param commit required commit
+     * @return serialized config map fields
+     */
+    @Override
+    public List<byte[]> getSerializedMap(String commit) {
+        refreshIfNewer(commit);
+        return storage.getSerializedPrivateConfigs();
+    }
+
+    private void refreshIfNewer(String commit) {
         if (StringUtils.isEmpty(commit)
             || (version.get() != null && commit.equals(version.get()))
             || persistenceConfigRepository.hasVersion(commit)) {
             log.debug("Get configuration from memory by commit: {}", commit);
-            return storage.getPrivateConfigs();
         } else {
-            ConfigurationList configurationList = persistenceConfigRepository.findAll();
-            List<Configuration> actualConfigs = configurationList.getData();
-            storage.refreshStorage(actualConfigs);
-            updateVersion(configurationList.getCommit());
-            return storage.getPrivateConfigs();
+            refreshInternal();
         }
     }
 
+    /**
+     * Get configurations changed after map version or commit. The journal is read under the lock that
+     * publishes changes, so a change is never returned without its paths. Contents are read after it,
+     * so a newer content can be returned and the same change returned again next time, but never lost.
+     * If version is unknown or too old - return full config map.
+     *
+     * @param since map version returned earlier or commit known by client
+     * @return changed and deleted configurations with the map version to request next changes since
+     */
+    @Override
+    public ConfigurationChanges getChanges(String since) {
+        String mapVersion;
+        Optional<ConfigChangeJournal.Changes> changes;
+        synchronized (changeLock) {
+            mapVersion = getMapVersion();
+            changes = changeJournal.getChangesSince(since);
+        }
+        return changes
+            .map(changed -> toChanges(changed.getVersion(), changed.getPaths()))
+            .orElseGet(() -> {
+                log.info("Changes since version {} not found, return full config map", since);
+                return new ConfigurationChanges(mapVersion, true, storage.getPrivateConfigs(), new HashSet<>());
+            });
+    }
+
+    private ConfigurationChanges toChanges(String mapVersion, Set<String> paths) {
+        Map<String, Configuration> changed = new HashMap<>();
+        Set<String> deleted = new HashSet<>();
+        for (String path : paths) {
+            Configuration configuration = storage.getPrivateConfig(path);
+            if (configuration == null) {
+                deleted.add(path);
+            } else {
+                changed.put(path, configuration);
+            }
+        }
+        return new ConfigurationChanges(mapVersion, false, changed, deleted);
+    }
+
     @Override
     public boolean hasVersion(String version) {
         throw new NotImplementedException("hasVersion() not implemented for ConfigProxyRepository");
@@ -90,6 +173,21 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
         return persistenceConfigRepository.find(path, version);
     }
 
+    @Override
+    public Page<ConfigurationCommit> findHistory(String path, Pageable pageable) {
+        return persistenceConfigRepository.findHistory(path, pageable);
+    }
+
+    @Override
+    public List<ConfigurationDiff> findChanges(String fromVersion, String toVersion, String pathPrefix) {
+        return persistenceConfigRepository.findChanges(fromVersion, toVersion, pathPrefix);
+    }
+
+    @Override
+    public String diff(String fromVersion, String toVersion, String pathPrefix) {
+        return persistenceConfigRepository.diff(fromVersion, toVersion, pathPrefix);
+    }
+
     @Override
     public String save(Configuration configuration) {
         return save(configuration, null);
@@ -102,11 +200,21 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
         return commit;
     }
 
+    @Override
+    public ConfigurationItem update(String path, UnaryOperator<String> contentUpdater) {
+        ConfigurationItem item = persistenceConfigRepository.update(path, contentUpdater);
+        if (item.getData() != null) {
+            updateConfigurationInMemory(item.getData(), item.getCommit());
+        }
+        return item;
+    }
+
     @Override
     public void updateConfigurationInMemory(Configuration configuration, String commit) {
-        storage.updateConfig(configuration.getPath(), configuration);
-        version.set(commit);
-        configTopicProducer.notifyConfigurationChanged(commit, singletonList(configuration.getPath()));
+        applyChanges(commit, true, () -> {
+            storage.updateConfig(configuration.getPath(), configuration);
+            return singletonList(configuration.getPath());
+        });
     }
 
     @Override
@@ -116,68 +224,136 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
         return commit;
     }
 
+    /**
+     * Save configurations from streams. Content is read to memory only after the commit, to update storage.
+     *
+     * @param sources content sources by configuration path
+     * @return commit
+     */
+    @Override
+    public String saveAll(Map<String, ? extends InputStreamSource> sources) {
+        String commit = persistenceConfigRepository.saveAll(sources);
+        List<Configuration> configurations = new ArrayList<>(sources.size());
+        sources.forEach((path, source) -> configurations.add(toConfiguration(path, source)));
+        updateConfigurationsInMemory(configurations, commit);
+        return commit;
+    }
+
+    @SneakyThrows
+    private static Configuration toConfiguration(String path, InputStreamSource source) {
+        try (InputStream inputStream = source.getInputStream()) {
+            return new Configuration(path, IOUtils.toString(inputStream, UTF_8));
+        }
+    }
+
     @Override
     public void updateConfigurationsInMemory(List<Configuration> configurations, String commit) {
         Map<String, Configuration> map = new HashMap<>();
         configurations.forEach(configuration -> map.put(configuration.getPath(), configuration));
-        storage.updateConfigs(map);
-        version.set(commit);
-        configTopicProducer.notifyConfigurationChanged(commit, configurations.stream()
-            .map(Configuration::getPath).collect(toList()));
+        applyChanges(commit, true, () -> {
+            storage.updateConfigs(map);
+            return configurations.stream().map(Configuration::getPath).collect(toList());
+        });
+    }
+
+    @Override
+    public String exportArchive(String pathPrefix, String version, OutputStream outputStream) {
+        return persistenceConfigRepository.exportArchive(pathPrefix, version, outputStream);
+    }
+
+    @Override
+    public ConfigurationList importArchive(String pathPrefix, InputStream inputStream) {
+        ConfigurationList configurationList = persistenceConfigRepository.importArchive(pathPrefix, inputStream);
+        updateConfigurationsInMemory(configurationList.getData(), configurationList.getCommit());
+        return configurationList;
+    }
+
+    /**
+     * Copy folder in git and then apply the committed configurations to storage.
+     *
+     * @param sourcePrefix folder to copy
+     * @param targetPrefix new folder
+     * @return commit and cloned configurations
+     */
+    @Override
+    public ConfigurationList cloneFolder(String sourcePrefix, String targetPrefix) {
+        ConfigurationList configurationList = persistenceConfigRepository.cloneFolder(sourcePrefix, targetPrefix);
+        updateConfigurationsInMemory(configurationList.getData(), configurationList.getCommit());
+        return configurationList;
+    }
+
+    /**
+     * Restore folder in git and then apply changed and deleted configurations to storage, see
+     * {@link PersistenceConfigRepository#rollbackFolder(String, String)}.
+     */
+    @Override
+    public ConfigurationChanges rollbackFolder(String pathPrefix, String rollbackVersion) {
+        ConfigurationChanges changes = persistenceConfigRepository.rollbackFolder(pathPrefix, rollbackVersion);
+        List<String> paths = new ArrayList<>(changes.getConfigurations().keySet());
+        paths.addAll(changes.getDeletedPaths());
+        if (paths.isEmpty()) {
+            return changes;
+        }
+        applyChanges(changes.getVersion(), true, () -> {
+            storage.updateConfigs(changes.getConfigurations());
+            changes.getDeletedPaths().forEach(storage::removeConfig);
+            return paths;
+        });
+        return changes;
     }
 
     @Override
     public String delete(String path) {
         String commit = persistenceConfigRepository.delete(path);
-        List<String> removedPaths = storage.removeExactOrByPrefix(path);
-        version.set(commit);
-        configTopicProducer.notifyConfigurationChanged(commit, removedPaths);
+        applyChanges(commit, true, () -> storage.removeExactOrByPrefix(path));
         return commit;
     }
 
     @Override
     public String deleteAll(List<String> paths) {
         String commit = persistenceConfigRepository.deleteAll(paths);
-        version.set(commit);
-        deleteAllInMemory(paths, commit);
+        applyChanges(commit, true, () -> removeAll(paths));
         return commit;
     }
 
     public void deleteAllInMemory(List<String> paths) {
-        deleteAllInMemory(paths, getCommitVersion());
+        applyChanges(null, false, () -> removeAll(paths));
     }
 
-    private void deleteAllInMemory(List<String> paths, String commit) {
+    private List<String> removeAll(List<String> paths) {
         Set<String> removed = paths.stream()
                                    .map(storage::removeExactOrByPrefix)
                                    .flatMap(List::stream)
                                    .collect(toSet());
-        configTopicProducer.notifyConfigurationChanged(commit, new LinkedList<>(removed));
+        return new LinkedList<>(removed);
     }
 
     @Override
     public void refreshInternal() {
         ConfigurationList configurationList = persistenceConfigRepository.findAll();
         List<Configuration> actualConfigs = configurationList.getData();
-        storage.refreshStorage(actualConfigs);
-        updateVersion(configurationList.getCommit());
+        synchronized (changeLock) {
+            storage.refreshStorage(actualConfigs);
+            updateVersion(configurationList.getCommit());
+            changeJournal.reset(configurationList.getCommit(), getMapVersion());
+        }
     }
 
     @Override
     public void refreshAll() {
         ConfigurationList configurationList = persistenceConfigRepository.findAll();
         List<Configuration> actualConfigs = configurationList.getData();
-        Set<String> updated = storage.refreshStorage(actualConfigs);
-        updateVersion(configurationList.getCommit());
-        notifyChanged(updated);
+        applyChanges(configurationList.getCommit(), true, () -> storage.refreshStorage(actualConfigs));
     }
 
     @Override
     public void refreshPath(String path) {
         ConfigurationItem configurationItem = persistenceConfigRepository.find(path);
         Configuration configuration = configurationItem.getData();
-        storage.updateConfig(configuration.getPath(), configuration);
-        configTopicProducer.notifyConfigurationChanged(configurationItem.getCommit(), singletonList(configuration.getPath()));
+        applyChanges(configurationItem.getCommit(), false, () -> {
+            storage.updateConfig(configuration.getPath(), configuration);
+            return singletonList(configuration.getPath());
+        });
     }
 
     @Override
@@ -188,8 +364,8 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
             .filter(config -> config.getPath().startsWith(getTenantPathPrefix(tenant)))
             .collect(toList());
 
-        Set<String> updated = storage.refreshStorage(actualConfigs, tenant);
-        notifyChanged(updated);
+        List<Configuration> tenantConfigs = actualConfigs;
+        applyChanges(null, false, () -> storage.refreshStorage(tenantConfigs, tenant));
     }
 
     @Override
@@ -197,11 +373,44 @@ public class ConfigProxyRepository implements DistributedConfigRepository {
         return version.get();
     }
 
+    /**
+     * Get version of in memory config map. Commit is not enough as in memory updates keep it the same.
+     *
+     * @return commit and storage revision
+     */
+    @Override
+    public String getMapVersion() {
+        return version.get() + "-" + storage.getRevision();
+    }
+
+    @Override
+    public String getConfigHash(Configuration configuration) {
+        return storage.getConfigHash(configuration);
+    }
+
     private void updateVersion(String commit) {
         version.set(commit);
     }
 
-    private void notifyChanged(Set<String> updated) {
-        configTopicProducer.notifyConfigurationChanged(version.get(), new ArrayList<>(updated));
+    /**
+     * Update storage, publish version and record changed paths as one step, so getChanges never sees
+     * the new version without its paths. Subscribers are notified after it.
+     *
+     * @param commit        commit of the changes, if null - changes are made in memory under the current version
+     * @param updateVersion true if commit becomes the version of storage
+     * @param storageUpdate updates storage and returns changed paths
+     */
+    private void applyChanges(String commit, boolean updateVersion, Supplier<Collection<String>> storageUpdate) {
+        String changeCommit;
+        List<String> paths;
+        synchronized (changeLock) {
+            paths = new ArrayList<>(storageUpdate.get());
+            if (updateVersion) {
+                updateVersion(commit);
+            }
+            changeCommit = commit == null ? version.get() : commit;
+            changeJournal.record(changeCommit, getMapVersion(), paths);
+        }
+        configTopicProducer.notifyConfigurationChanged(changeCommit, paths);
     }
 }
@@ -1,13 +1,18 @@
 package com.icthh.xm.ms.configuration.repository.impl;
 
 import static com.icthh.xm.ms.configuration.utils.LockUtils.runWithLock;
+import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.ANY_CONFIG_HASH;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.getRequestSourceLogName;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.getRequestSourceTypeLogName;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.isRequestSourceNameExist;
 import static java.io.File.separator;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.apache.commons.io.FileUtils.copyInputStreamToFile;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.commons.io.FileUtils.listFiles;
 import static org.apache.commons.io.FileUtils.readFileToString;
@@ -17,6 +22,7 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode.TRACK;
 import static org.eclipse.jgit.api.Git.cloneRepository;
 import static org.eclipse.jgit.lib.Constants.DEFAULT_REMOTE_NAME;
+import static org.eclipse.jgit.lib.Constants.HEAD;
 import static org.eclipse.jgit.lib.RepositoryCache.FileKey.isGitRepository;
 
 import com.icthh.xm.commons.config.domain.Configuration;
@@ -27,22 +33,45 @@ import com.icthh.xm.commons.tenant.TenantContextUtils;
 import com.icthh.xm.commons.tenant.TenantKey;
 import com.icthh.xm.ms.configuration.config.ApplicationProperties.GitProperties;
 import com.icthh.xm.ms.configuration.config.SshTransportConfigCallback;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
 import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
 import com.icthh.xm.ms.configuration.domain.ConfigurationList;
 import com.icthh.xm.ms.configuration.repository.PersistenceConfigRepository;
 import com.icthh.xm.ms.configuration.service.ConcurrentConfigModificationException;
 import com.icthh.xm.ms.configuration.utils.Task;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.eclipse.jgit.api.CloneCommand;
@@ -51,12 +80,22 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.GitCommand;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -66,14 +105,22 @@ import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.util.FileSystemUtils;
 
 @Slf4j
 public class JGitRepository implements PersistenceConfigRepository {
 
     private static final String GIT_FOLDER = ".git";
+    private static final String UNDEFINED_COMMIT = "undefined";
     private static final String GIT_COMMIT_MSG_UPDATE_TPL = "Update [%s] by user [%s] from tenant [%s]. %s";
     private static final String GIT_COMMIT_MSG_DELETE_TPL = "Delete [%s] by user [%s] from tenant [%s]. %s";
+    private static final String GIT_COMMIT_MSG_IMPORT_TPL = "Import [%s] by user [%s] from tenant [%s]. %s";
+    private static final String GIT_COMMIT_MSG_CLONE_TPL = "Clone [%s] by user [%s] from tenant [%s]. %s";
+    private static final String GIT_COMMIT_MSG_ROLLBACK_TPL = "Rollback [%s] by user [%s] from tenant [%s]. %s";
     private static final String SUB_MSG_TPL_OPERATION_SRC = "Operation src [%s]";
     private static final String SUB_MSG_TPL_OPERATION_SRC_AND_APP = SUB_MSG_TPL_OPERATION_SRC + ", app name [%s]";
 
@@ -89,6 +136,13 @@ public class JGitRepository implements PersistenceConfigRepository {
 
     private final XmRequestContextHolder requestContextHolder;
 
+    private final PathHistoryIndex historyIndex;
+
+    /** changes and unified diffs by resolved commits and path, commits are immutable so entries are never invalidated */
+    private final DiffCache<List<ConfigurationDiff>> changesCache;
+
+    private final DiffCache<String> diffCache;
+
     public JGitRepository(GitProperties gitProperties,
                           Lock lock,
                           TenantContextHolder tenantContextHolder,
@@ -100,6 +154,9 @@ public class JGitRepository implements PersistenceConfigRepository {
         this.rootDirectory = createGitWorkDirectory();
         this.tenantContextHolder = tenantContextHolder;
         this.authenticationContextHolder = authenticationContextHolder;
+        this.historyIndex = new PathHistoryIndex(gitProperties.getHistoryMaxCommitsPerPath());
+        this.changesCache = new DiffCache<>(gitProperties.getDiffCacheMaxChars(), JGitRepository::weighChanges);
+        this.diffCache = new DiffCache<>(gitProperties.getDiffCacheMaxChars(), String::length);
 
         log.info("Git working directory {}", rootDirectory.getAbsolutePath());
         log.info("Git branch to use {}", gitProperties.getBranchName());
@@ -233,6 +290,136 @@ public class JGitRepository implements PersistenceConfigRepository {
         }
     }
 
+    @Override
+    @SneakyThrows
+    public Page<ConfigurationCommit> findHistory(String path, Pageable pageable) {
+        log.info("[{}] Find history of path: {}", getRequestSourceTypeLogName(requestContextHolder), path);
+        ObjectId head = runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            pull();
+            return executeGitAction("resolveHead", git -> git.getRepository().resolve(HEAD));
+        });
+        if (head == null) {
+            return Page.empty(pageable);
+        }
+        // objects of a commit are immutable, so the index is updated without holding the lock
+        return executeGitAction("findHistory", git -> historyIndex.find(git.getRepository(), head, path, pageable));
+    }
+
+    @Override
+    public List<ConfigurationDiff> findChanges(String fromVersion, String toVersion, String pathPrefix) {
+        log.info("[{}] Find changes of path {} from version {} to version {}",
+                 getRequestSourceTypeLogName(requestContextHolder), pathPrefix, fromVersion, toVersion);
+        DiffKey key = resolveDiffKey(fromVersion, toVersion, pathPrefix);
+        List<ConfigurationDiff> cached = changesCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<ConfigurationDiff> changes = executeGitAction("findChanges", git -> scanChanges(git.getRepository(), key));
+        changesCache.put(key, changes);
+        return changes;
+    }
+
+    @Override
+    public String diff(String fromVersion, String toVersion, String pathPrefix) {
+        log.info("[{}] Diff path {} from version {} to version {}",
+                 getRequestSourceTypeLogName(requestContextHolder), pathPrefix, fromVersion, toVersion);
+        DiffKey key = resolveDiffKey(fromVersion, toVersion, pathPrefix);
+        String cached = diffCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String diff = executeGitAction("diff", git -> formatDiff(git.getRepository(), key));
+        diffCache.put(key, diff);
+        return diff;
+    }
+
+    /**
+     * Resolve versions to commit ids, so symbolic versions like HEAD or branch names never hit a stale cache entry.
+     * Blank to version is resolved to the local HEAD, the repository is pulled only if a version is unknown.
+     */
+    @SneakyThrows
+    private DiffKey resolveDiffKey(String fromVersion, String toVersion, String pathPrefix) {
+        return runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            if (!hasVersion(fromVersion) || !isBlank(toVersion) && !hasVersion(toVersion)) {
+                pull();
+            }
+            String to = isBlank(toVersion) ? HEAD : toVersion;
+            return executeGitAction("resolveDiff", git -> resolveDiffKey(git.getRepository(), fromVersion, to,
+                                                                        pathPrefix));
+        });
+    }
+
+    @SneakyThrows
+    private static DiffKey resolveDiffKey(Repository repository, String fromVersion, String toVersion,
+                                          String pathPrefix) {
+        return new DiffKey(resolveCommit(repository, fromVersion), resolveCommit(repository, toVersion),
+                           StringUtils.strip(StringUtils.defaultString(pathPrefix), "/"));
+    }
+
+    @SneakyThrows
+    private static List<ConfigurationDiff> scanChanges(Repository repository, DiffKey key) {
+        try (DiffFormatter formatter = createDiffFormatter(repository, DisabledOutputStream.INSTANCE, key)) {
+            return Collections.unmodifiableList(
+                scan(repository, formatter, key).stream().map(JGitRepository::toConfigurationDiff).collect(toList()));
+        }
+    }
+
+    @SneakyThrows
+    private static String formatDiff(Repository repository, DiffKey key) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DiffFormatter formatter = createDiffFormatter(repository, output, key)) {
+            formatter.format(scan(repository, formatter, key));
+            formatter.flush();
+        }
+        return new String(output.toByteArray(), UTF_8);
+    }
+
+    private static DiffFormatter createDiffFormatter(Repository repository, OutputStream output, DiffKey key) {
+        DiffFormatter formatter = new DiffFormatter(output);
+        formatter.setRepository(repository);
+        // rename detection compares contents of added and deleted files, so their blobs are read even without output
+        formatter.setDetectRenames(true);
+        if (!key.getTreePath().isEmpty()) {
+            formatter.setPathFilter(PathFilter.create(key.getTreePath()));
+        }
+        return formatter;
+    }
+
+    private static List<DiffEntry> scan(Repository repository, DiffFormatter formatter, DiffKey key)
+        throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            return formatter.scan(revWalk.parseCommit(key.getFrom()).getTree(),
+                                  revWalk.parseCommit(key.getTo()).getTree());
+        }
+    }
+
+    private static long weighChanges(List<ConfigurationDiff> changes) {
+        long chars = 0;
+        for (ConfigurationDiff change : changes) {
+            chars += change.getChangeType().length() + StringUtils.length(change.getOldPath())
+                     + StringUtils.length(change.getNewPath());
+        }
+        return chars;
+    }
+
+    private static ObjectId resolveCommit(Repository repository, String version) throws IOException {
+        ObjectId commitId = repository.resolve(version);
+        if (commitId == null) {
+            throw new IllegalArgumentException("Version " + version + " not found");
+        }
+        return commitId;
+    }
+
+    private static ConfigurationDiff toConfigurationDiff(DiffEntry entry) {
+        return new ConfigurationDiff(entry.getChangeType().name(),
+                                     toConfigurationPath(entry.getOldPath()),
+                                     toConfigurationPath(entry.getNewPath()));
+    }
+
+    private static String toConfigurationPath(String treePath) {
+        return DiffEntry.DEV_NULL.equals(treePath) ? null : "/" + treePath;
+    }
+
     @Override
     public String saveAll(List<Configuration> configurations) {
         List<String> paths = configurations.stream().map(Configuration::getPath).collect(toList());
@@ -244,8 +431,20 @@ public class JGitRepository implements PersistenceConfigRepository {
                                      () -> configurations.forEach(this::writeConfiguration));
         }
         log.info("[{}] configuration list is empty, nothing to save", getRequestSourceTypeLogName(requestContextHolder));
-        return "undefined";
+        return UNDEFINED_COMMIT;
+
+    }
 
+    @Override
+    public String saveAll(Map<String, ? extends InputStreamSource> sources) {
+        if (!sources.isEmpty()) {
+            log.info("[{}] Save configurations to git from streams by paths {}",
+                     getRequestSourceTypeLogName(requestContextHolder), sources.keySet());
+            return runWithPullCommit(getCommitMsg(GIT_COMMIT_MSG_UPDATE_TPL, "multiple paths"),
+                                     () -> sources.forEach(this::writeConfiguration));
+        }
+        log.info("[{}] configuration list is empty, nothing to save", getRequestSourceTypeLogName(requestContextHolder));
+        return UNDEFINED_COMMIT;
     }
 
     @Override
@@ -263,6 +462,298 @@ public class JGitRepository implements PersistenceConfigRepository {
         });
     }
 
+    @Override
+    @SneakyThrows
+    public ConfigurationItem update(String path, UnaryOperator<String> contentUpdater) {
+        log.info("[src: {}] Update configuration in git with path {}", getRequestSourceTypeLogName(requestContextHolder),
+                 path);
+        String commitMsg = getCommitMsg(GIT_COMMIT_MSG_UPDATE_TPL, path);
+        return runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            String commit = pull();
+            File file = new File(getPathname(path));
+            String content = file.exists() ? readFileToString(file, UTF_8) : null;
+            String updated = contentUpdater.apply(content);
+            if (Objects.equals(content, updated)) {
+                log.info("Skip commit to git as configuration {} is not changed", path);
+                return new ConfigurationItem(commit, null);
+            }
+            Configuration configuration = new Configuration(path, updated);
+            writeConfiguration(configuration);
+            return new ConfigurationItem(commitAndPush(commitMsg), configuration);
+        });
+    }
+
+    @Override
+    @SneakyThrows
+    public String exportArchive(String pathPrefix, String version, OutputStream outputStream) {
+        log.info("[{}] Export configurations by path {} and version {}",
+                 getRequestSourceTypeLogName(requestContextHolder), pathPrefix, version);
+        String commit = runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            if (isBlank(version)) {
+                return pull();
+            }
+            if (!hasVersion(version)) {
+                pull();
+            }
+            return version;
+        });
+        // objects of a commit are immutable, so the tree is read without holding the lock for the whole download
+        return executeGitAction("exportArchive", git -> {
+            writeArchive(git.getRepository(), commit, pathPrefix, outputStream);
+            return commit;
+        });
+    }
+
+    @SneakyThrows
+    private void writeArchive(Repository repository, String commit, String pathPrefix, OutputStream outputStream) {
+        ObjectId commitId = resolveCommit(repository, commit);
+        String treePath = StringUtils.strip(pathPrefix, "/");
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+            treeWalk.setRecursive(true);
+            // empty prefix exports the whole repository
+            int prefixLength = treePath.isEmpty() ? 0 : treePath.length() + 1;
+            if (!treePath.isEmpty()) {
+                treeWalk.setFilter(PathFilter.create(treePath));
+            }
+            // checked before the first entry, so nothing is written to the output
+            if (!treeWalk.next()) {
+                throw new IllegalArgumentException("No configurations by path " + pathPrefix + " in version " + commit);
+            }
+            do {
+                zip.putNextEntry(new ZipEntry(treeWalk.getPathString().substring(prefixLength)));
+                repository.open(treeWalk.getObjectId(0)).copyTo(zip);
+                zip.closeEntry();
+            } while (treeWalk.next());
+        }
+        zip.setComment(commit);
+        zip.finish();
+    }
+
+    @Override
+    @SneakyThrows
+    public ConfigurationList importArchive(String pathPrefix, InputStream inputStream) {
+        log.info("[{}] Import configurations by path {}", getRequestSourceTypeLogName(requestContextHolder), pathPrefix);
+        String commitMsg = getCommitMsg(GIT_COMMIT_MSG_IMPORT_TPL, pathPrefix);
+        return runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            String version = pull();
+            List<Configuration> configurations;
+            try {
+                configurations = extractArchive(pathPrefix, inputStream);
+            } catch (RuntimeException | IOException e) {
+                discardChanges();
+                throw e;
+            }
+            String commit = commitAndPush(commitMsg);
+            // nothing is committed if the archive is empty or equal to the current files
+            return new ConfigurationList(UNDEFINED_COMMIT.equals(commit) ? version : commit, configurations);
+        });
+    }
+
+    private List<Configuration> extractArchive(String pathPrefix, InputStream inputStream) throws IOException {
+        Path root = new File(getPathname(StringUtils.stripEnd(pathPrefix, "/"))).toPath().normalize();
+        List<Configuration> configurations = new ArrayList<>();
+        long maxBytes = gitProperties.getMaxImportBytes();
+        long totalBytes = 0;
+        ZipInputStream zip = new ZipInputStream(inputStream);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            Path file = root.resolve(entry.getName()).normalize();
+            if (!file.startsWith(root) || file.equals(root)) {
+                throw new IllegalArgumentException("Archive entry " + entry.getName() + " is outside of " + pathPrefix);
+            }
+            Files.createDirectories(file.getParent());
+            // entry sizes in zip headers can be wrong, so the copied bytes are counted
+            totalBytes += Files.copy(new BoundedInputStream(zip, maxBytes - totalBytes + 1), file, REPLACE_EXISTING);
+            if (totalBytes > maxBytes) {
+                throw new IllegalArgumentException("Archive is larger than " + maxBytes + " bytes");
+            }
+            String path = StringUtils.stripEnd(pathPrefix, "/") + "/"
+                          + StringUtils.replaceChars(root.relativize(file).toString(), File.separator, "/");
+            configurations.add(new Configuration(path, readFileToString(file.toFile(), UTF_8)));
+        }
+        return configurations;
+    }
+
+    @Override
+    @SneakyThrows
+    public ConfigurationList cloneFolder(String sourcePrefix, String targetPrefix) {
+        log.info("[{}] Clone configurations from {} to {}",
+                 getRequestSourceTypeLogName(requestContextHolder), sourcePrefix, targetPrefix);
+        String commitMsg = getCommitMsg(GIT_COMMIT_MSG_CLONE_TPL, sourcePrefix + " to " + targetPrefix);
+        return runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            pull();
+            return executeGitAction("cloneFolder", git -> {
+                ConfigurationList cloned = commitFolderCopy(git.getRepository(), sourcePrefix, targetPrefix, commitMsg);
+                pushTreeCommit(git);
+                return cloned;
+            });
+        });
+    }
+
+    /**
+     * Push commit made directly to the branch, index and working tree are synced with it before.
+     */
+    private void pushTreeCommit(Git git) throws GitAPIException {
+        git.reset().setMode(ResetType.HARD).call();
+        PushCommand push = git.push();
+        push = setAuthorizationConfig(push);
+        push.call();
+    }
+
+    /**
+     * Commit tree of HEAD with entries of source folder added once more under target folder.
+     * Entries point to the same blobs, so the target tree object is equal to the source one. Contents are read
+     * only to return the committed configurations.
+     */
+    @SneakyThrows
+    private ConfigurationList commitFolderCopy(Repository repository, String sourcePrefix, String targetPrefix,
+                                               String commitMsg) {
+        String sourcePath = StringUtils.strip(sourcePrefix, "/") + "/";
+        String targetPath = StringUtils.strip(targetPrefix, "/") + "/";
+        DirCache index = DirCache.newInCore();
+        DirCacheBuilder builder = index.builder();
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository);
+             ObjectInserter inserter = repository.newObjectInserter()) {
+            RevCommit head = revWalk.parseCommit(repository.resolve(HEAD));
+            treeWalk.addTree(head.getTree());
+            treeWalk.setRecursive(true);
+            List<Configuration> copied = new ArrayList<>();
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                if (path.startsWith(targetPath)) {
+                    throw new IllegalArgumentException("Folder " + targetPrefix + " already exists");
+                }
+                builder.add(toEntry(path, treeWalk, 0));
+                if (path.startsWith(sourcePath)) {
+                    String copyPath = targetPath + path.substring(sourcePath.length());
+                    builder.add(toEntry(copyPath, treeWalk, 0));
+                    byte[] content = repository.open(treeWalk.getObjectId(0)).getBytes();
+                    copied.add(new Configuration("/" + copyPath, new String(content, UTF_8)));
+                }
+            }
+            if (copied.isEmpty()) {
+                throw new IllegalArgumentException("Folder " + sourcePrefix + " not found");
+            }
+            builder.finish();
+            return new ConfigurationList(commitIndex(repository, revWalk, inserter, head, index, commitMsg), copied);
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public ConfigurationChanges rollbackFolder(String pathPrefix, String version) {
+        log.info("[{}] Rollback configurations by path {} to version {}",
+                 getRequestSourceTypeLogName(requestContextHolder), pathPrefix, version);
+        if (isBlank(StringUtils.strip(pathPrefix, "/"))) {
+            throw new IllegalArgumentException("Rollback path must not be empty or root");
+        }
+        String commitMsg = getCommitMsg(GIT_COMMIT_MSG_ROLLBACK_TPL, pathPrefix + " to " + version);
+        return runWithLock(lock, gitProperties.getMaxWaitTimeSecond(), () -> {
+            String headCommit = pull();
+            return executeGitAction("rollbackFolder", git -> {
+                ConfigurationChanges changes = commitFolderRollback(git.getRepository(), pathPrefix, version, commitMsg);
+                if (changes == null) {
+                    log.info("Skip commit to git as {} is not changed since version {}", pathPrefix, version);
+                    return new ConfigurationChanges(headCommit, false, emptyMap(), emptySet());
+                }
+                pushTreeCommit(git);
+                return changes;
+            });
+        });
+    }
+
+    /**
+     * Commit tree of HEAD with entries under path replaced by entries of the same path in version.
+     * Only blobs of changed configurations are read, to return them.
+     *
+     * @return commit and changed configurations, null if nothing is changed
+     */
+    @SneakyThrows
+    private ConfigurationChanges commitFolderRollback(Repository repository, String pathPrefix, String version,
+                                                      String commitMsg) {
+        String treePath = StringUtils.strip(pathPrefix, "/");
+        DirCache index = DirCache.newInCore();
+        DirCacheBuilder builder = index.builder();
+        Map<String, Configuration> changed = new HashMap<>();
+        Set<String> deleted = new HashSet<>();
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository);
+             ObjectInserter inserter = repository.newObjectInserter()) {
+            RevCommit head = revWalk.parseCommit(repository.resolve(HEAD));
+            RevCommit target = revWalk.parseCommit(resolveCommit(repository, version));
+            treeWalk.addTree(head.getTree());
+            treeWalk.addTree(target.getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                boolean rolledBack = path.equals(treePath) || path.startsWith(treePath + "/");
+                int source = rolledBack ? 1 : 0;
+                if (treeWalk.getRawMode(source) != 0) {
+                    builder.add(toEntry(path, treeWalk, source));
+                }
+                if (!rolledBack || treeWalk.idEqual(0, 1) && treeWalk.getRawMode(0) == treeWalk.getRawMode(1)) {
+                    continue;
+                }
+                if (treeWalk.getRawMode(1) == 0) {
+                    deleted.add("/" + path);
+                } else {
+                    byte[] content = repository.open(treeWalk.getObjectId(1)).getBytes();
+                    changed.put("/" + path, new Configuration("/" + path, new String(content, UTF_8)));
+                }
+            }
+            if (changed.isEmpty() && deleted.isEmpty()) {
+                return null;
+            }
+            builder.finish();
+            String commit = commitIndex(repository, revWalk, inserter, head, index, commitMsg);
+            return new ConfigurationChanges(commit, false, changed, deleted);
+        }
+    }
+
+    private String commitIndex(Repository repository, RevWalk revWalk, ObjectInserter inserter, RevCommit head,
+                               DirCache index, String commitMsg) throws IOException {
+        PersonIdent ident = new PersonIdent(repository);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(commitMsg);
+        commit.setParentId(head);
+        commit.setTreeId(index.writeTree(inserter));
+        ObjectId commitId = inserter.insert(commit);
+        inserter.flush();
+
+        RefUpdate refUpdate = repository.updateRef(HEAD);
+        refUpdate.setNewObjectId(commitId);
+        refUpdate.setExpectedOldObjectId(head);
+        refUpdate.setRefLogMessage("commit: " + commitMsg, false);
+        RefUpdate.Result result = refUpdate.update(revWalk);
+        if (result != RefUpdate.Result.FAST_FORWARD) {
+            throw new IllegalStateException("Failed to update branch to commit " + commitId.getName() + ": " + result);
+        }
+        return commitId.getName();
+    }
+
+    private static DirCacheEntry toEntry(String path, TreeWalk treeWalk, int tree) {
+        DirCacheEntry entry = new DirCacheEntry(path);
+        entry.setFileMode(treeWalk.getFileMode(tree));
+        entry.setObjectId(treeWalk.getObjectId(tree));
+        return entry;
+    }
+
+    private void discardChanges() {
+        executeGitAction("discardChanges", git -> {
+            git.reset().setMode(ResetType.HARD).call();
+            git.clean().setCleanDirectories(true).setForce(true).call();
+            return null;
+        });
+    }
+
     @SneakyThrows
     private void assertConfigHash(Configuration configuration, String oldConfigHash) {
         if (isBlank(oldConfigHash)) {
@@ -270,7 +761,14 @@ public class JGitRepository implements PersistenceConfigRepository {
         }
 
         String path = configuration.getPath();
-        String content = readFileToString(new File(getPathname(path)), UTF_8);
+        File file = new File(getPathname(path));
+        if (ANY_CONFIG_HASH.equals(oldConfigHash)) {
+            if (!file.exists()) {
+                throw new ConcurrentConfigModificationException();
+            }
+            return;
+        }
+        String content = readFileToString(file, UTF_8);
         String expectedOldConfigHash = sha1Hex(content);
         log.info("Expected hash {}, actual hash {}", expectedOldConfigHash, oldConfigHash);
         if (!expectedOldConfigHash.equals(oldConfigHash)) {
@@ -338,6 +836,11 @@ public class JGitRepository implements PersistenceConfigRepository {
         write(new File(getPathname(configuration.getPath())), configuration.getContent(), UTF_8);
     }
 
+    @SneakyThrows
+    private void writeConfiguration(String path, InputStreamSource source) {
+        copyInputStreamToFile(source.getInputStream(), new File(getPathname(path)));
+    }
+
     private UsernamePasswordCredentialsProvider createCredentialsProvider() {
         return new UsernamePasswordCredentialsProvider(gitProperties.getLogin(), gitProperties.getPassword());
     }
@@ -386,7 +889,7 @@ public class JGitRepository implements PersistenceConfigRepository {
         return executeGitAction("commitAndPush", git -> {
             if (git.status().call().isClean()) {
                 log.info("Skip commit to git as working directory is clean after performing: {}", commitMsg);
-                return "undefined";
+                return UNDEFINED_COMMIT;
             }
             git.add().addFilepattern(".").call();
             RevCommit commit = git.commit().setAll(true).setMessage(commitMsg).call();
@@ -473,6 +976,50 @@ public class JGitRepository implements PersistenceConfigRepository {
         R get() throws E;
     }
 
+    @Value
+    private static class DiffKey {
+        private ObjectId from;
+        private ObjectId to;
+        private String treePath;
+    }
+
+    /**
+     * Least recently used diffs bounded by their total size in chars. A value larger than the limit is not cached.
+     */
+    private static class DiffCache<V> {
+
+        private final Map<DiffKey, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxChars;
+        private final ToLongFunction<V> weigher;
+        private long chars;
+
+        DiffCache(long maxChars, ToLongFunction<V> weigher) {
+            this.maxChars = maxChars;
+            this.weigher = weigher;
+        }
+
+        synchronized V get(DiffKey key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(DiffKey key, V value) {
+            long valueChars = weigher.applyAsLong(value);
+            if (valueChars > maxChars) {
+                return;
+            }
+            V replaced = entries.put(key, value);
+            if (replaced != null) {
+                chars -= weigher.applyAsLong(replaced);
+            }
+            chars += valueChars;
+            Iterator<V> eldest = entries.values().iterator();
+            while (chars > maxChars && eldest.hasNext()) {
+                chars -= weigher.applyAsLong(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
     private <T extends GitCommand> T setAuthorizationConfig(TransportCommand<T, ?> cloneCommand) {
         if (gitProperties.getSsh().isEnabled()) {
             return cloneCommand.setTransportConfigCallback(new SshTransportConfigCallback(gitProperties.getSsh()));
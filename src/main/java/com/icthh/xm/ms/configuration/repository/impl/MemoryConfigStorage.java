@@ -1,5 +1,6 @@
 package com.icthh.xm.ms.configuration.repository.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.ms.configuration.domain.TenantAliasTree;
 import com.icthh.xm.ms.configuration.domain.TenantAliasTree.TenantAlias;
@@ -8,18 +9,26 @@ import com.icthh.xm.ms.configuration.service.processors.ConfigurationProcessor;
 import com.icthh.xm.ms.configuration.service.processors.PrivateConfigurationProcessor;
 import com.icthh.xm.ms.configuration.service.processors.PublicConfigurationProcessor;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.Synchronized;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -30,6 +39,8 @@ import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.thymeleaf.util.SetUtils.singletonSet;
 
 @Slf4j
@@ -37,12 +48,24 @@ import static org.thymeleaf.util.SetUtils.singletonSet;
 @RequiredArgsConstructor
 public class MemoryConfigStorage {
 
+    private static final char[] PATTERN_CHARS = {'*', '?', '{'};
+
     /** original configuration in memory storage */
     private final ConcurrentMap<String, Configuration> storage = new ConcurrentHashMap<>();
     /** use for processed config with private information (returned only by /api/private) see ConfigMapResource */
     private final ConcurrentMap<String, Configuration> privateStorage = new ConcurrentHashMap<>();
     /** use for processed configs for override */
     private final ConcurrentMap<String, Configuration> processedStorage = new ConcurrentHashMap<>();
+    /** content hashes of configurations, valid only for the same configuration instance */
+    private final ConcurrentMap<String, ContentHash> hashes = new ConcurrentHashMap<>();
+    /** json fragments of private configs, valid only for the same configuration instance, see ConfigMapResource */
+    private final ConcurrentMap<String, SerializedConfiguration> serializedPrivateStorage = new ConcurrentHashMap<>();
+    /** sorted paths of all storages, used for prefix and pattern lookups */
+    private final NavigableSet<String> pathIndex = new ConcurrentSkipListSet<>();
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    /** incremented on every storage modification, including in memory updates that keep the commit */
+    private final AtomicLong revision = new AtomicLong();
 
     private final List<PrivateConfigurationProcessor> privateConfigurationProcessors;
     private final List<PublicConfigurationProcessor> publicConfigurationProcessors;
@@ -56,6 +79,102 @@ public class MemoryConfigStorage {
         return configs;
     }
 
+    /**
+     * Get private configs as json object fields ({@code "path":{...}}) in UTF-8.
+     * Each configuration is serialized once and then reused until it is replaced in storage.
+     *
+     * @return serialized config map fields
+     */
+    public List<byte[]> getSerializedPrivateConfigs() {
+        Map<String, Configuration> configs = getPrivateConfigs();
+        List<byte[]> fragments = new ArrayList<>(configs.size());
+        configs.forEach((path, config) -> fragments.add(getSerializedPrivateConfig(path, config)));
+        return fragments;
+    }
+
+    private byte[] getSerializedPrivateConfig(String path, Configuration configuration) {
+        SerializedConfiguration serialized = serializedPrivateStorage.get(path);
+        if (serialized == null || serialized.getConfiguration() != configuration) {
+            serialized = new SerializedConfiguration(configuration, serialize(path, configuration));
+            serializedPrivateStorage.put(path, serialized);
+        }
+        return serialized.getJson();
+    }
+
+    @SneakyThrows
+    private byte[] serialize(String path, Configuration configuration) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jsonMapper.writeValueAsBytes(path));
+        out.write(':');
+        out.write(jsonMapper.writeValueAsBytes(configuration));
+        return out.toByteArray();
+    }
+
+    /**
+     * Get private configs by paths without building the whole config map. Path can be an ant pattern
+     * (e.g. {@code /config/tenants/*&#47;entity/**}), in this case only paths with the same static prefix are checked.
+     * Exact paths are returned even if configuration is absent, patterns return only existing configurations.
+     *
+     * @param paths paths or patterns
+     * @return configs by path
+     */
+    public Map<String, Configuration> getPrivateConfigs(Collection<String> paths) {
+        Map<String, Configuration> configs = new HashMap<>();
+        for (String path : paths) {
+            if (matcher.isPattern(path)) {
+                findPaths(path).forEach(found -> putIfPresent(configs, found, getPrivateConfig(found)));
+            } else {
+                configs.put(path, getPrivateConfig(path));
+            }
+        }
+        return configs;
+    }
+
+    private static void putIfPresent(Map<String, Configuration> configs, String path, Configuration configuration) {
+        if (configuration != null) {
+            configs.put(path, configuration);
+        }
+    }
+
+    /**
+     * Find existing paths matched by ant pattern using the path index.
+     *
+     * @param pattern ant pattern
+     * @return matched paths
+     */
+    public List<String> findPaths(String pattern) {
+        String prefix = getStaticPrefix(pattern);
+        List<String> paths = new ArrayList<>();
+        for (String path : pathIndex.tailSet(prefix, true)) {
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            if (matcher.match(pattern, path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private static String getStaticPrefix(String pattern) {
+        int end = pattern.length();
+        for (char wildcard : PATTERN_CHARS) {
+            int index = pattern.indexOf(wildcard);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        return pattern.substring(0, end);
+    }
+
+    public Configuration getPrivateConfig(String path) {
+        Configuration config = privateStorage.get(path);
+        if (config == null) {
+            config = processedStorage.get(path);
+        }
+        return config == null ? storage.get(path) : config;
+    }
+
     public List<Configuration> getConfigList() {
         Map<String, Configuration> configs = new HashMap<>();
         configs.putAll(storage);
@@ -67,6 +186,36 @@ public class MemoryConfigStorage {
         return processedStorage.getOrDefault(path, storage.get(path));
     }
 
+    /**
+     * Get sha1 hash of configuration content, the same as used for oldConfigHash.
+     * Hash is calculated once per stored configuration instance, hashes of other instances
+     * (e.g. historical versions) are not remembered.
+     *
+     * @param configuration configuration
+     * @return content hash
+     */
+    public String getConfigHash(Configuration configuration) {
+        String path = configuration.getPath();
+        ContentHash contentHash = hashes.get(path);
+        if (contentHash != null && contentHash.getConfiguration() == configuration) {
+            return contentHash.getHash();
+        }
+        String hash = sha1Hex(defaultString(configuration.getContent()));
+        if (isStored(path, configuration)) {
+            hashes.put(path, new ContentHash(configuration, hash));
+        }
+        return hash;
+    }
+
+    private boolean isStored(String path, Configuration configuration) {
+        return storage.get(path) == configuration || processedStorage.get(path) == configuration
+               || privateStorage.get(path) == configuration;
+    }
+
+    public long getRevision() {
+        return revision.get();
+    }
+
     public List<String> removeExactOrByPrefix(final String path) {
         boolean removed = removeConfig(path);
         if (!removed) {
@@ -99,6 +248,7 @@ public class MemoryConfigStorage {
 
     public void updateConfig(String path, Configuration config) {
         storage.put(path, config);
+        pathIndex.add(path);
         process(config);
     }
 
@@ -144,11 +294,18 @@ public class MemoryConfigStorage {
         boolean removed = storage.remove(path) != null;
         removed = processedStorage.remove(path) != null || removed;
         removed = privateStorage.remove(path) != null || removed;
+        hashes.remove(path);
+        serializedPrivateStorage.remove(path);
+        pathIndex.remove(path);
+        publicConfigurationProcessors.forEach(processor -> processor.onRemove(path));
+        privateConfigurationProcessors.forEach(processor -> processor.onRemove(path));
+        revision.incrementAndGet();
         return removed;
     }
 
     @SuppressWarnings("ConstantConditions")
     private void process(Configuration configuration) {
+        revision.incrementAndGet();
         Set<Configuration> configurations = singletonSet(configuration);
         configurations = processConfiguration(configurations, publicConfigurationProcessors, processedStorage);
         processConfiguration(configurations, privateConfigurationProcessors, privateStorage);
@@ -176,6 +333,7 @@ public class MemoryConfigStorage {
             try {
                 List<Configuration> configurations = processor.processConfiguration(configuration, storage, processedStorage);
                 processedStorage.putAll(configurations.stream().collect(toMap(Configuration::getPath, identity())));
+                configurations.forEach(processed -> pathIndex.add(processed.getPath()));
                 return configurations.stream();
             } catch (Exception e) {
                 log.error("Error run processor", e);
@@ -196,5 +354,21 @@ public class MemoryConfigStorage {
         storage.clear();
         processedStorage.clear();
         privateStorage.clear();
+        hashes.clear();
+        serializedPrivateStorage.clear();
+        pathIndex.clear();
+        revision.incrementAndGet();
+    }
+
+    @Value
+    private static class ContentHash {
+        private Configuration configuration;
+        private String hash;
+    }
+
+    @Value
+    private static class SerializedConfiguration {
+        private Configuration configuration;
+        private byte[] json;
     }
 }
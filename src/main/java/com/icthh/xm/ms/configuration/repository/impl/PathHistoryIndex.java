@@ -0,0 +1,244 @@
+package com.icthh.xm.ms.configuration.repository.impl;
+
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.time.StopWatch;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latest commits that changed each path, oldest first. The index is built on the first history request
+ * and then updated incrementally from the last indexed commit on the next requests, so history requests do not
+ * walk the whole git log. Only the latest commits of each path are kept, older pages are read from git log.
+ * A merge commit changes a path only if the path differs from all parents, both in the index and in git log.
+ * <p>
+ * Commits are walked without holding the index monitor, which guards only the short merge and page reads.
+ * Updates are made by one request at a time, other requests that need a newer commit read git log meanwhile.
+ */
+@Slf4j
+class PathHistoryIndex {
+
+    private final int maxCommitsPerPath;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    /** guarded by this */
+    private final Map<String, Deque<ConfigurationCommit>> commitsByPath = new HashMap<>();
+    /** number of all commits of each path, including commits that are not kept, guarded by this */
+    private final Map<String, Integer> countsByPath = new HashMap<>();
+    /** guarded by this */
+    private ObjectId indexedCommit;
+
+    PathHistoryIndex(int maxCommitsPerPath) {
+        this.maxCommitsPerPath = maxCommitsPerPath;
+    }
+
+    /**
+     * Get commits that changed path, newest first.
+     *
+     * @param repository repository, objects are read only
+     * @param head       commit to index up to
+     * @param path       configuration path
+     * @param pageable   page
+     */
+    Page<ConfigurationCommit> find(Repository repository, ObjectId head, String path,
+                                   Pageable pageable) throws IOException {
+        if (!head.equals(getIndexedCommit())) {
+            if (!updateLock.tryLock()) {
+                log.debug("Path history index is being updated, read history of {} from git log", path);
+                return findInLog(repository, head, path, pageable, null);
+            }
+            try {
+                update(repository, head);
+            } finally {
+                updateLock.unlock();
+            }
+        }
+
+        ObjectId commit;
+        List<ConfigurationCommit> content;
+        int total;
+        synchronized (this) {
+            commit = indexedCommit;
+            Deque<ConfigurationCommit> commits = commitsByPath.getOrDefault(path, new ArrayDeque<>());
+            total = countsByPath.getOrDefault(path, 0);
+            long end = pageable.getOffset() + pageable.getPageSize();
+            content = end <= commits.size() || commits.size() == total ? getPage(commits, pageable) : null;
+        }
+        return content != null ? new PageImpl<>(content, pageable, total)
+                               : findInLog(repository, commit, path, pageable, total);
+    }
+
+    private synchronized ObjectId getIndexedCommit() {
+        return indexedCommit;
+    }
+
+    /**
+     * Index commits from the last indexed commit to head, called by one thread at a time. If head is not
+     * a descendant of the indexed commit, e.g. after force push, the index is rebuilt.
+     */
+    private void update(Repository repository, ObjectId head) throws IOException {
+        ObjectId fromCommit = getIndexedCommit();
+        if (head.equals(fromCommit)) {
+            return;
+        }
+        StopWatch stopWatch = StopWatch.createStarted();
+        Map<String, Deque<ConfigurationCommit>> newCommits = new HashMap<>();
+        Map<String, Integer> newCounts = new HashMap<>();
+        int count = 0;
+        boolean rebuild = fromCommit == null;
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            RevCommit headCommit = revWalk.parseCommit(head);
+            if (!rebuild && !revWalk.isMergedInto(revWalk.parseCommit(fromCommit), headCommit)) {
+                log.info("Commit {} is not an ancestor of {}, rebuild path history index", fromCommit.getName(),
+                         head.getName());
+                rebuild = true;
+            }
+            revWalk.reset();
+            revWalk.markStart(headCommit);
+            if (!rebuild) {
+                revWalk.markUninteresting(revWalk.parseCommit(fromCommit));
+            }
+            revWalk.sort(RevSort.TOPO, true);
+            revWalk.sort(RevSort.REVERSE, true);
+            for (RevCommit commit : revWalk) {
+                ConfigurationCommit configurationCommit = toConfigurationCommit(commit);
+                for (String path : getChangedPaths(revWalk, treeWalk, commit, null)) {
+                    add(newCommits, newCounts, path, configurationCommit);
+                }
+                count++;
+            }
+        }
+
+        synchronized (this) {
+            if (rebuild) {
+                commitsByPath.clear();
+                countsByPath.clear();
+            }
+            newCommits.forEach((path, commits) -> commits.forEach(
+                commit -> add(commitsByPath, countsByPath, path, commit)));
+            // counts of commits that were not kept in new commits
+            newCounts.forEach((path, newCount) -> countsByPath.merge(path, newCount - newCommits.get(path).size(),
+                                                                     Integer::sum));
+            indexedCommit = head.copy();
+        }
+        log.info("Path history index updated with {} commits in {} ms", count, stopWatch.getTime());
+    }
+
+    /**
+     * Get paths changed by commit, the only definition of a change used by the index and git log reading.
+     * A merge commit changes a path only if the path differs from all parents.
+     *
+     * @param pathFilter filter of paths, null for all paths
+     */
+    private static List<String> getChangedPaths(RevWalk revWalk, TreeWalk treeWalk, RevCommit commit,
+                                                TreeFilter pathFilter) throws IOException {
+        treeWalk.reset();
+        if (commit.getParentCount() == 0) {
+            treeWalk.addTree(new EmptyTreeIterator());
+        }
+        for (RevCommit parent : commit.getParents()) {
+            treeWalk.addTree(revWalk.parseCommit(parent).getTree());
+        }
+        int commitTree = treeWalk.addTree(commit.getTree());
+        treeWalk.setRecursive(true);
+        treeWalk.setFilter(pathFilter == null ? TreeFilter.ANY_DIFF : AndTreeFilter.create(pathFilter,
+                                                                                         TreeFilter.ANY_DIFF));
+
+        List<String> paths = new ArrayList<>();
+        while (treeWalk.next()) {
+            if (isChangedFromAllParents(treeWalk, commitTree)) {
+                paths.add("/" + treeWalk.getPathString());
+            }
+        }
+        return paths;
+    }
+
+    private static boolean isChangedFromAllParents(TreeWalk treeWalk, int commitTree) {
+        for (int parentTree = 0; parentTree < commitTree; parentTree++) {
+            if (treeWalk.idEqual(parentTree, commitTree)
+                && treeWalk.getRawMode(parentTree) == treeWalk.getRawMode(commitTree)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(Map<String, Deque<ConfigurationCommit>> targetCommits, Map<String, Integer> targetCounts,
+                     String path, ConfigurationCommit commit) {
+        Deque<ConfigurationCommit> commits = targetCommits.computeIfAbsent(path, key -> new ArrayDeque<>());
+        commits.addLast(commit);
+        if (commits.size() > maxCommitsPerPath) {
+            commits.removeFirst();
+        }
+        targetCounts.merge(path, 1, Integer::sum);
+    }
+
+    private static List<ConfigurationCommit> getPage(Deque<ConfigurationCommit> commits, Pageable pageable) {
+        List<ConfigurationCommit> content = new ArrayList<>();
+        Iterator<ConfigurationCommit> newestFirst = commits.descendingIterator();
+        for (long i = 0; newestFirst.hasNext() && content.size() < pageable.getPageSize(); i++) {
+            ConfigurationCommit commit = newestFirst.next();
+            if (i >= pageable.getOffset()) {
+                content.add(commit);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Read page of commits that changed path from git log, walking all commits from start.
+     *
+     * @param total number of commits of the path if known, otherwise the whole log is walked to count them
+     */
+    private Page<ConfigurationCommit> findInLog(Repository repository, ObjectId start, String path,
+                                                Pageable pageable, Integer total) throws IOException {
+        List<ConfigurationCommit> content = new ArrayList<>();
+        long found = 0;
+        TreeFilter pathFilter = PathFilter.create(path.substring(1));
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            revWalk.markStart(revWalk.parseCommit(start));
+            revWalk.sort(RevSort.TOPO);
+            for (RevCommit commit : revWalk) {
+                if (getChangedPaths(revWalk, treeWalk, commit, pathFilter).isEmpty()) {
+                    continue;
+                }
+                if (found++ >= pageable.getOffset() && content.size() < pageable.getPageSize()) {
+                    content.add(toConfigurationCommit(commit));
+                }
+                if (total != null && content.size() >= pageable.getPageSize()) {
+                    break;
+                }
+            }
+        }
+        return new PageImpl<>(content, pageable, total != null ? total : found);
+    }
+
+    private static ConfigurationCommit toConfigurationCommit(RevCommit commit) {
+        return new ConfigurationCommit(commit.getName(),
+                                       commit.getAuthorIdent().getName(),
+                                       commit.getAuthorIdent().getWhen().toInstant(),
+                                       commit.getShortMessage());
+    }
+}
@@ -0,0 +1,446 @@
+package com.icthh.xm.ms.configuration.repository.kafka;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icthh.xm.commons.config.client.config.XmConfigProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties.ConfigTopicProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Pending config events, that are sent to config topic by a background relay, so configuration writes
+ * never wait for kafka. If outbox dir is set, events and acknowledgements are appended to a local file
+ * and not acknowledged events are sent again after restart. Events are sent in order and retried
+ * until acknowledged. When an event fails, the next events with the same key are sent again after it,
+ * so the last event of every key is always the latest one. If kafka is unavailable for long, the oldest events
+ * are dropped when outbox max depth is exceeded.
+ * <p>
+ * Appended events are synced to disk before append returns. Outbox file is rewritten with pending events only
+ * when it grows several times over them. If outbox file can not be written, events are kept in memory
+ * and the file is rewritten on next compaction.
+ */
+@Slf4j
+@Component
+public class ConfigEventOutbox implements MeterBinder {
+
+    private static final String OUTBOX_FILE = "config-events.outbox";
+    private static final String OUTBOX_TMP_FILE = "config-events.outbox.tmp";
+    /** outbox file is compacted when it has more records than this ratio of pending events */
+    private static final int COMPACTION_RATIO = 4;
+    /** records that outbox file can have over the compaction ratio, so small outbox is not rewritten too often */
+    private static final int COMPACTION_MIN_RECORDS = 100;
+
+    private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final ExecutorService relayExecutor = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "config-topic-relay"));
+    private final AtomicLong lastId = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong deliveryTimeMillis = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** events by id in send order, guarded by this */
+    private final Map<Long, OutboxRecord> pending = new LinkedHashMap<>();
+    /** outbox file channel, guarded by this */
+    private FileChannel channel;
+    /** records written to outbox file since it was compacted, guarded by this */
+    private long writtenRecords;
+    /** outbox file misses records after a write failure, guarded by this */
+    private boolean broken;
+
+    private final KafkaTemplate<String, String> template;
+    private final XmConfigProperties configProperties;
+    private final ConfigTopicProperties properties;
+    private final Path outboxFile;
+
+    public ConfigEventOutbox(KafkaTemplate<String, String> template,
+                             XmConfigProperties configProperties,
+                             ApplicationProperties applicationProperties) {
+        this.template = template;
+        this.configProperties = configProperties;
+        this.properties = applicationProperties.getConfigTopic();
+        String outboxDir = properties.getOutboxDir();
+        this.outboxFile = StringUtils.isBlank(outboxDir) ? null : Paths.get(outboxDir, OUTBOX_FILE);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (outboxFile != null) {
+            Files.createDirectories(outboxFile.getParent());
+            restore();
+            log.info("Config event outbox {} restored with {} pending events", outboxFile, pending.size());
+        }
+        relayExecutor.execute(this::relay);
+    }
+
+    /**
+     * Send pending events once more and stop relay. Events that were not acknowledged are kept in outbox file.
+     */
+    @PreDestroy
+    public void destroy() throws IOException {
+        relayExecutor.shutdownNow();
+        try {
+            relayExecutor.awaitTermination(properties.getDeliveryTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<OutboxRecord> batch = getBatch();
+        if (!batch.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            acknowledge(deliver(batch));
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                log.warn("{} config events are not delivered on shutdown", pending.size());
+            }
+            closeChannel();
+        }
+    }
+
+    /**
+     * Add event to outbox. Returns after the event is synced to outbox file, without waiting for kafka.
+     * The sync is made outside of the lock, so relay is not blocked by it.
+     *
+     * @param key     record key, can be null
+     * @param content event
+     */
+    public void append(String key, String content) {
+        OutboxRecord record = new OutboxRecord();
+        record.setId(lastId.incrementAndGet());
+        record.setKey(key);
+        record.setContent(content);
+        record.setCreated(System.currentTimeMillis());
+        FileChannel written;
+        synchronized (this) {
+            written = write(record);
+            pending.put(record.getId(), record);
+            dropOldest();
+            notifyAll();
+        }
+        sync(written);
+    }
+
+    /**
+     * Drop the oldest events over max depth, guarded by this.
+     */
+    private void dropOldest() {
+        Iterator<OutboxRecord> records = pending.values().iterator();
+        while (pending.size() > properties.getOutboxMaxDepth() && records.hasNext()) {
+            OutboxRecord record = records.next();
+            records.remove();
+            dropped.incrementAndGet();
+            log.error("Config event outbox max depth {} exceeded, drop event {} with key {}",
+                      properties.getOutboxMaxDepth(), record.getId(), record.getKey());
+            OutboxRecord ack = new OutboxRecord();
+            ack.setAck(record.getId());
+            write(ack);
+        }
+    }
+
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    private void relay() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<OutboxRecord> batch = awaitBatch();
+                List<OutboxRecord> delivered = deliver(batch);
+                acknowledge(delivered);
+                if (delivered.size() < batch.size()) {
+                    log.warn("{} config events are not delivered, retry in {} ms", batch.size() - delivered.size(),
+                             properties.getRetryDelayMs());
+                    Thread.sleep(properties.getRetryDelayMs());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error relay config events, retry in {} ms", properties.getRetryDelayMs(), e);
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(properties.getRetryDelayMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized List<OutboxRecord> awaitBatch() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        return getBatch();
+    }
+
+    private synchronized List<OutboxRecord> getBatch() {
+        List<OutboxRecord> batch = new ArrayList<>();
+        for (OutboxRecord record : pending.values()) {
+            if (batch.size() >= properties.getRelayBatchSize()) {
+                break;
+            }
+            batch.add(record);
+        }
+        return batch;
+    }
+
+    /**
+     * Send events in order and wait for acknowledgements.
+     *
+     * @return delivered events, events after a failed event with the same key are not included
+     */
+    private List<OutboxRecord> deliver(List<OutboxRecord> batch) {
+        String topic = configProperties.getKafkaConfigTopic();
+        List<Future<?>> results = new ArrayList<>(batch.size());
+        for (OutboxRecord record : batch) {
+            results.add(send(topic, record));
+        }
+
+        List<OutboxRecord> delivered = new ArrayList<>(batch.size());
+        Set<String> failedKeys = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxRecord record = batch.get(i);
+            String key = StringUtils.defaultString(record.getKey());
+            if (!failedKeys.contains(key) && isDelivered(results.get(i))) {
+                delivered.add(record);
+            } else {
+                failedKeys.add(key);
+            }
+        }
+        failures.addAndGet(batch.size() - delivered.size());
+        return delivered;
+    }
+
+    private Future<?> send(String topic, OutboxRecord record) {
+        try {
+            return record.getKey() == null ? template.send(topic, record.getContent())
+                                           : template.send(topic, record.getKey(), record.getContent());
+        } catch (Exception e) {
+            log.warn("Error send config event {}: {}", record.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isDelivered(Future<?> result) {
+        if (result == null) {
+            return false;
+        }
+        try {
+            result.get(properties.getDeliveryTimeoutMs(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.warn("Config event is not delivered: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized void acknowledge(List<OutboxRecord> delivered) {
+        long now = System.currentTimeMillis();
+        for (OutboxRecord record : delivered) {
+            if (pending.remove(record.getId()) == null) {
+                // dropped while it was delivered
+                continue;
+            }
+            deliveries.incrementAndGet();
+            deliveryTimeMillis.addAndGet(now - record.getCreated());
+            if (!pending.isEmpty()) {
+                OutboxRecord ack = new OutboxRecord();
+                ack.setAck(record.getId());
+                write(ack);
+            }
+        }
+        if (outboxFile != null && (pending.isEmpty() || broken
+                                   || writtenRecords > COMPACTION_RATIO * pending.size() + COMPACTION_MIN_RECORDS)) {
+            compact();
+        }
+    }
+
+    /**
+     * Write record to outbox file, guarded by this. Failure is logged and the record is kept in memory only.
+     *
+     * @return channel the record is written to, to sync it, or null if record was not written
+     */
+    private FileChannel write(OutboxRecord record) {
+        if (outboxFile == null) {
+            return null;
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(outboxFile, CREATE, WRITE, APPEND);
+            }
+            writeRecord(channel, record);
+            writtenRecords++;
+            return channel;
+        } catch (IOException e) {
+            log.error("Error write to config event outbox {}, pending events are kept in memory", outboxFile, e);
+            broken = true;
+            closeChannel();
+            return null;
+        }
+    }
+
+    private void writeRecord(FileChannel target, OutboxRecord record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((mapper.writeValueAsString(record) + "\n").getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private void sync(FileChannel written) {
+        if (written == null) {
+            return;
+        }
+        try {
+            written.force(false);
+        } catch (ClosedChannelException e) {
+            log.debug("Config event outbox was compacted and synced before the event sync");
+        } catch (IOException e) {
+            log.error("Error sync config event outbox {}", outboxFile, e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error close config event outbox {}: {}", outboxFile, e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Rewrite outbox file with pending events only, guarded by this.
+     */
+    private void compact() {
+        try {
+            rewrite();
+        } catch (IOException e) {
+            log.error("Error compact config event outbox {}", outboxFile, e);
+        }
+    }
+
+    private void rewrite() throws IOException {
+        closeChannel();
+        Path tmpFile = outboxFile.resolveSibling(OUTBOX_TMP_FILE);
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            for (OutboxRecord record : pending.values()) {
+                writeRecord(tmpChannel, record);
+            }
+            tmpChannel.force(false);
+        }
+        Files.move(tmpFile, outboxFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        writtenRecords = pending.size();
+        broken = false;
+    }
+
+    /**
+     * Read not acknowledged events and rewrite outbox file with them only.
+     */
+    private synchronized void restore() throws IOException {
+        if (Files.exists(outboxFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(outboxFile, UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    restore(line);
+                }
+            }
+        }
+        rewrite();
+    }
+
+    private void restore(String line) {
+        if (StringUtils.isBlank(line)) {
+            return;
+        }
+        try {
+            OutboxRecord record = mapper.readValue(line, OutboxRecord.class);
+            if (record.getAck() != null) {
+                pending.remove(record.getAck());
+            } else {
+                pending.put(record.getId(), record);
+                lastId.accumulateAndGet(record.getId(), Math::max);
+            }
+        } catch (IOException e) {
+            // the last line can be incomplete if process was killed during write
+            log.warn("Skip broken config event outbox record: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("config.topic.outbox.depth", this, ConfigEventOutbox::getDepth)
+             .description("Config events waiting for delivery to config topic")
+             .register(registry);
+        FunctionTimer.builder("config.topic.delivery", this, outbox -> outbox.deliveries.get(),
+                              outbox -> outbox.deliveryTimeMillis.get(), TimeUnit.MILLISECONDS)
+                     .description("Time from adding config event to outbox until kafka acknowledgement")
+                     .register(registry);
+        FunctionCounter.builder("config.topic.delivery.failures", failures, AtomicLong::get)
+                       .description("Failed attempts to deliver config events")
+                       .register(registry);
+        FunctionCounter.builder("config.topic.outbox.dropped", dropped, AtomicLong::get)
+                       .description("Config events dropped as outbox max depth was exceeded")
+                       .register(registry);
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    static class OutboxRecord {
+        private Long id;
+        private String key;
+        private String content;
+        private Long created;
+        private Long ack;
+    }
+}
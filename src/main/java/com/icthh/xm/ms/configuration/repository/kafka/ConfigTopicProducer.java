@@ -5,45 +5,299 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.icthh.xm.commons.config.client.config.XmConfigProperties;
 import com.icthh.xm.commons.config.domain.ConfigEvent;
+import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.logging.util.MdcUtils;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties.ConfigTopicProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChangeEvent;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChangeEvent.InlinedConfiguration;
+import com.icthh.xm.ms.configuration.repository.impl.MemoryConfigStorage;
 import com.icthh.xm.ms.configuration.utils.ConfigPathUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.apache.commons.lang3.StringUtils.defaultString;
+
+/**
+ * Sends config events to config topic through {@link ConfigEventOutbox}. Paths are split by tenant, events of a tenant are keyed by its name,
+ * so they keep order and can be consumed in parallel, and are chunked when exceed max event size.
+ * If inlining is enabled, events contain hashes of changed configurations and content of small ones,
+ * captured when the change is notified, so they match the commit of the event.
+ * If coalesce window is set, changed paths are accumulated and sent as one change with the latest commit
+ * when the window ends, the paths cap is reached or on shutdown.
+ */
 @Slf4j
 @RequiredArgsConstructor
 @Component
-public class ConfigTopicProducer {
+public class ConfigTopicProducer implements MeterBinder {
 
-    private final KafkaTemplate<String, String> template;
-    private final XmConfigProperties configProperties;
+    private final ConfigEventOutbox outbox;
+    private final ApplicationProperties applicationProperties;
+    private final MemoryConfigStorage storage;
 
     private final ObjectMapper mapper = new ObjectMapper()
         .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
         .setSerializationInclusion(JsonInclude.Include.NON_NULL)
         .registerModule(new JavaTimeModule());
 
+    /** bytes of separator added by each serialized path besides the path itself, measured once with the mapper */
+    private final int pathOverheadBytes = measurePathOverhead();
+    /** bytes of key separator and entry separator added by each inlined configuration, measured once */
+    private final int inlinedOverheadBytes = measureInlinedOverhead();
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+        runnable -> new Thread(runnable, "config-topic-flush"));
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+
+    /** held from draining changes until they are appended to outbox, so events keep order of changes */
+    private final Object sendLock = new Object();
+
+    /** accumulated changes, guarded by this */
+    private final Set<String> pendingPaths = new HashSet<>();
+    private final Map<String, Configuration> pendingConfigs = new HashMap<>();
+    private String pendingCommit;
+    private String pendingRid;
+    private ScheduledFuture<?> scheduledFlush;
+
     @Value("${xm-config.kafka-config-topic}")
     private String topicName;
 
     public void notifyConfigurationChanged(String commit, List<String> paths) {
         if (CollectionUtils.isNotEmpty(paths)) {
-            ConfigEvent event = buildEvent(MdcUtils.getRid(), commit, paths);
-            log.info("prepared ConfigEvent: commit = {}, paths.count = {}, top paths: {}",
-                     commit, paths.size(), ConfigPathUtils.printPathsWithLimit(paths));
-            serializeEvent(event).ifPresent(this::send);
+            eventsReceived.incrementAndGet();
+            ConfigTopicProperties properties = applicationProperties.getConfigTopic();
+            Map<String, Configuration> configs = captureConfigs(paths, properties);
+            if (properties.getCoalesceWindowMs() <= 0) {
+                synchronized (sendLock) {
+                    sendEvent(MdcUtils.getRid(), commit, paths, configs);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (!pendingPaths.isEmpty()) {
+                    eventsCoalesced.incrementAndGet();
+                }
+                pendingPaths.addAll(paths);
+                paths.forEach(pendingConfigs::remove);
+                pendingConfigs.putAll(configs);
+                pendingCommit = commit == null ? pendingCommit : commit;
+                pendingRid = MdcUtils.getRid();
+                if (pendingPaths.size() < properties.getCoalesceMaxPaths() && scheduleFlush(properties)) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Send accumulated changes as one event.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            String rid;
+            String commit;
+            List<String> paths;
+            Map<String, Configuration> configs;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (pendingPaths.isEmpty()) {
+                    return;
+                }
+                rid = pendingRid;
+                commit = pendingCommit;
+                paths = new ArrayList<>(pendingPaths);
+                configs = new HashMap<>(pendingConfigs);
+                pendingPaths.clear();
+                pendingConfigs.clear();
+            }
+            sendEvent(rid, commit, paths, configs);
+        }
+    }
+
+    /**
+     * Schedule flush at the end of coalesce window, guarded by this.
+     *
+     * @return false if the producer is destroyed and changes have to be sent immediately
+     */
+    private boolean scheduleFlush(ConfigTopicProperties properties) {
+        if (scheduledFlush == null) {
+            try {
+                scheduledFlush = flushExecutor.schedule(this::flush, properties.getCoalesceWindowMs(),
+                                                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.warn("Flush executor is shut down, send config event immediately");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushExecutor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Get configurations of changed paths to inline, deleted paths are absent.
+     */
+    private Map<String, Configuration> captureConfigs(List<String> paths, ConfigTopicProperties properties) {
+        Map<String, Configuration> configs = new HashMap<>();
+        if (properties.isInlineEnabled()) {
+            paths.forEach(path -> Optional.ofNullable(storage.getPrivateConfig(path))
+                                          .ifPresent(configuration -> configs.put(path, configuration)));
+        }
+        return configs;
+    }
+
+    private void sendEvent(String rid, String commit, List<String> paths, Map<String, Configuration> configs) {
+        log.info("prepared ConfigEvent: commit = {}, paths.count = {}, top paths: {}",
+                 commit, paths.size(), ConfigPathUtils.printPathsWithLimit(paths));
+        ConfigTopicProperties properties = applicationProperties.getConfigTopic();
+        int eventBytes = serializedSize(toEvent(rid, commit, new ArrayList<>(), new LinkedHashMap<>()));
+        groupByTenant(paths).forEach((tenant, tenantPaths) -> {
+            Chunk chunk = new Chunk(eventBytes);
+            for (String path : tenantPaths) {
+                InlinedConfiguration inlined = inline(configs.get(path), properties, chunk.inlinedContentBytes);
+                int pathBytes = estimatePathSize(path, inlined);
+                if (!chunk.paths.isEmpty() && chunk.bytes + pathBytes > properties.getMaxEventBytes()) {
+                    sendChunk(tenant, rid, commit, chunk);
+                    chunk = new Chunk(eventBytes);
+                    inlined = inline(configs.get(path), properties, 0);
+                    pathBytes = estimatePathSize(path, inlined);
+                }
+                chunk.add(path, pathBytes, inlined);
+            }
+            sendChunk(tenant, rid, commit, chunk);
+        });
+    }
+
+    /**
+     * Get hash of captured configuration and its content if it is below the size threshold
+     * and total inlined content of the event stays within the limit.
+     *
+     * @return inlined configuration or null if inlining is disabled or configuration is absent
+     */
+    private InlinedConfiguration inline(Configuration configuration, ConfigTopicProperties properties,
+                                        int inlinedContentBytes) {
+        if (configuration == null) {
+            return null;
+        }
+        String content = defaultString(configuration.getContent());
+        InlinedConfiguration inlined = new InlinedConfiguration(sha1Hex(content), null);
+        int contentBytes = estimateSize(content);
+        if (contentBytes <= properties.getInlineContentMaxBytes()
+            && inlinedContentBytes + contentBytes <= properties.getInlineMaxBytesPerEvent()) {
+            inlined.setContent(content);
+        }
+        return inlined;
+    }
+
+    /**
+     * Get bytes added to serialized event by path and its inlined configuration. Path and configuration are
+     * serialized with the event mapper, so escaping is counted, separators are counted for every path, so the
+     * estimate is never below the serialized size.
+     */
+    private int estimatePathSize(String path, InlinedConfiguration inlined) {
+        int pathBytes = serializedSize(path);
+        int bytes = pathBytes + pathOverheadBytes;
+        if (inlined != null) {
+            bytes += pathBytes + serializedSize(inlined) + inlinedOverheadBytes;
         }
+        return bytes;
+    }
+
+    /**
+     * Measure bytes added by the second path of event besides the path itself.
+     */
+    private int measurePathOverhead() {
+        ConfigEvent onePath = buildEvent(new ConfigEvent(), null, null, Collections.singletonList("a"));
+        ConfigEvent twoPaths = buildEvent(new ConfigEvent(), null, null, Arrays.asList("a", "b"));
+        return serializedSize(twoPaths) - serializedSize(onePath) - serializedSize("b");
+    }
+
+    /**
+     * Measure bytes added by the second inlined configuration of event besides its path and value.
+     */
+    private int measureInlinedOverhead() {
+        InlinedConfiguration inlined = new InlinedConfiguration(sha1Hex(""), null);
+        Map<String, InlinedConfiguration> oneConfig = new LinkedHashMap<>();
+        oneConfig.put("a", inlined);
+        Map<String, InlinedConfiguration> twoConfigs = new LinkedHashMap<>(oneConfig);
+        twoConfigs.put("b", inlined);
+        ConfigurationChangeEvent oneEvent = buildEvent(new ConfigurationChangeEvent(), null, null, new ArrayList<>());
+        oneEvent.setConfigs(oneConfig);
+        ConfigurationChangeEvent twoEvent = buildEvent(new ConfigurationChangeEvent(), null, null, new ArrayList<>());
+        twoEvent.setConfigs(twoConfigs);
+        return serializedSize(twoEvent) - serializedSize(oneEvent) - serializedSize("b") - serializedSize(inlined);
+    }
+
+    private int serializedSize(Object value) {
+        return serializeEvent(value).map(ConfigTopicProducer::estimateSize).orElse(0);
+    }
+
+    /**
+     * Group paths by tenant name, paths outside of tenant folders are grouped by empty name.
+     */
+    private static Map<String, List<String>> groupByTenant(List<String> paths) {
+        Map<String, List<String>> pathsByTenant = new TreeMap<>();
+        paths.forEach(path -> pathsByTenant.computeIfAbsent(ConfigPathUtils.getTenantName(path).orElse(""),
+                                                            tenant -> new ArrayList<>()).add(path));
+        return pathsByTenant;
+    }
+
+    private static int estimateSize(String value) {
+        return value == null ? 0 : value.getBytes(UTF_8).length;
+    }
+
+    private void sendChunk(String tenant, String rid, String commit, Chunk chunk) {
+        serializeEvent(toEvent(rid, commit, chunk.paths, chunk.configs))
+            .ifPresent(content -> send(StringUtils.defaultIfEmpty(tenant, null), content));
+    }
+
+    private ConfigEvent toEvent(String rid, String commit, List<String> paths,
+                                Map<String, InlinedConfiguration> configs) {
+        if (applicationProperties.getConfigTopic().isInlineEnabled()) {
+            ConfigurationChangeEvent changeEvent = buildEvent(new ConfigurationChangeEvent(), rid, commit, paths);
+            changeEvent.setConfigs(configs);
+            return changeEvent;
+        }
+        return buildEvent(new ConfigEvent(), rid, commit, paths);
     }
 
     private Optional<String> serializeEvent(Object event) {
@@ -56,8 +310,7 @@ public class ConfigTopicProducer {
         return Optional.empty();
     }
 
-    private ConfigEvent buildEvent(String eventId, String commit, List<String> paths) {
-        ConfigEvent event = new ConfigEvent();
+    private <E extends ConfigEvent> E buildEvent(E event, String eventId, String commit, List<String> paths) {
         event.setEventId(eventId);
         event.setCommit(commit);
         event.setPaths(new HashSet<>(paths));
@@ -65,11 +318,48 @@ public class ConfigTopicProducer {
         return event;
     }
 
-    private void send(String content) {
+    private void send(String key, String content) {
         if (StringUtils.isNotBlank(content)) {
-            log.info("Sending system event to kafka-topic = '{}', data.length = '{}'",
-                     configProperties.getKafkaConfigTopic(), content.length());
-            template.send(configProperties.getKafkaConfigTopic(), content);
+            log.info("Sending system event to config topic outbox, key = '{}', data.length = '{}'",
+                     key, content.length());
+            outbox.append(key, content);
+            eventsSent.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("config.topic.events.received", eventsReceived, AtomicLong::get)
+                       .description("Configuration changes notified to config topic")
+                       .register(registry);
+        FunctionCounter.builder("config.topic.events.sent", eventsSent, AtomicLong::get)
+                       .description("Config events sent to config topic")
+                       .register(registry);
+        FunctionCounter.builder("config.topic.events.coalesced", eventsCoalesced, AtomicLong::get)
+                       .description("Configuration changes merged into other config events")
+                       .register(registry);
+    }
+
+    private static class Chunk {
+
+        private final List<String> paths = new ArrayList<>();
+        private final Map<String, InlinedConfiguration> configs = new LinkedHashMap<>();
+        private int bytes;
+        private int inlinedContentBytes;
+
+        Chunk(int eventBytes) {
+            this.bytes = eventBytes;
+        }
+
+        void add(String path, int pathBytes, InlinedConfiguration inlined) {
+            paths.add(path);
+            bytes += pathBytes;
+            if (inlined != null) {
+                configs.put(path, inlined);
+                if (inlined.getContent() != null) {
+                    inlinedContentBytes += estimateSize(inlined.getContent());
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
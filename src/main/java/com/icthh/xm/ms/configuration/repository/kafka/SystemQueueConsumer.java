@@ -24,6 +24,8 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -33,6 +35,10 @@ import java.util.Set;
 @Service
 public class SystemQueueConsumer {
 
+    private final ObjectMapper mapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        .registerModule(new JavaTimeModule());
+
     private final PrivilegeService privilegeService;
 
     private final XmRequestContextHolder requestContextHolder;
@@ -54,32 +60,51 @@ public class SystemQueueConsumer {
         backoff = @Backoff(delayExpression = "${application.retry.delay}",
             multiplierExpression = "${application.retry.multiplier}"))
     public void consumeEvent(ConsumerRecord<String, String> message) {
+        consumeEvents(Collections.singletonList(message));
+    }
+
+    /**
+     * Consume batch of system queue event messages. Only the latest privileges of each app are applied,
+     * all resulting config changes are saved with one commit. Malformed messages are skipped, so they
+     * do not fail the batch, while a failed update is retried for the whole batch as it is one commit.
+     *
+     * @param messages the system queue event messages
+     */
+    @Retryable(maxAttemptsExpression = "${application.retry.max-attempts}",
+        backoff = @Backoff(delayExpression = "${application.retry.delay}",
+            multiplierExpression = "${application.retry.multiplier}"))
+    public void consumeEvents(List<ConsumerRecord<String, String>> messages) {
         MdcUtils.putRid();
         initRequestContextSourceType();
         try {
-            log.info("Consume system event from topic [{}]", message.topic());
-            ObjectMapper mapper = new ObjectMapper()
-                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            mapper.registerModule(new JavaTimeModule());
-            try {
-                SystemEvent event = mapper.readValue(message.value(), SystemEvent.class);
-                initRequestContextSourceName(event.getMessageSource());
-
-                log.info("Process system event from topic [{}], type='{}', source='{}', event_id ='{}'",
-                         message.topic(), event.getEventType(), event.getMessageSource(), event.getEventId());
-
-                switch (event.getEventType().toUpperCase()) {
-                    case SystemEventType.MS_PRIVILEGES:
-                        onEventMsPrivileges(event);
-                        break;
-
-                    default:
-                        log.info("System event ignored with type='{}', source='{}', event_id='{}'",
-                                 event.getEventType(), event.getMessageSource(), event.getEventId());
-                        break;
+            Map<String, Set<Privilege>> privilegesByApp = new LinkedHashMap<>();
+            for (ConsumerRecord<String, String> message : messages) {
+                log.info("Consume system event from topic [{}]", message.topic());
+                try {
+                    SystemEvent event = mapper.readValue(message.value(), SystemEvent.class);
+
+                    log.info("Process system event from topic [{}], type='{}', source='{}', event_id ='{}'",
+                             message.topic(), event.getEventType(), event.getMessageSource(), event.getEventId());
+
+                    switch (event.getEventType().toUpperCase()) {
+                        case SystemEventType.MS_PRIVILEGES:
+                            onEventMsPrivileges(event, privilegesByApp);
+                            break;
+
+                        default:
+                            log.info("System event ignored with type='{}', source='{}', event_id='{}'",
+                                     event.getEventType(), event.getMessageSource(), event.getEventId());
+                            break;
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("System queue message has incorrect format: '{}' ", message.value(), e);
                 }
-            } catch (IOException e) {
-                log.error("System queue message has incorrect format: '{}' ", message.value(), e);
+            }
+
+            if (!privilegesByApp.isEmpty()) {
+                initRequestContextSourceName(String.join(",", privilegesByApp.keySet()));
+                // update apps privileges and sync deleted permissions
+                privilegeService.updatePrivileges(privilegesByApp);
             }
         } finally {
             MdcUtils.removeRid();
@@ -87,12 +112,15 @@ public class SystemQueueConsumer {
         }
     }
 
-    private void onEventMsPrivileges(SystemEvent event) {
+    private void onEventMsPrivileges(SystemEvent event, Map<String, Set<Privilege>> privilegesByApp) {
         final String appName = getRequiredAppName(event);
         final Optional<Set<Privilege>> appPrivileges = getAppPrivileges(event, appName);
 
-        // update app privileges and sync deleted permissions
-        appPrivileges.ifPresent(privileges -> privilegeService.updatePrivileges(appName, privileges));
+        // later event of the same app replaces earlier one
+        appPrivileges.ifPresent(privileges -> {
+            privilegesByApp.remove(appName);
+            privilegesByApp.put(appName, privileges);
+        });
     }
 
     private static String getRequiredAppName(SystemEvent event) {
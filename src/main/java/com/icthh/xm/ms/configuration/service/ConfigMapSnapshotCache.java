@@ -0,0 +1,124 @@
+package com.icthh.xm.ms.configuration.service;
+
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties.ConfigMapProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip encoded full config map of the current map version. The snapshot is built lazily once per version
+ * and shared by all clients, so a deploy storm does not serialize and compress the same map for every instance.
+ */
+@Slf4j
+@Component
+public class ConfigMapSnapshotCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final int compressionLevel;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong buildTimeNanos = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public ConfigMapSnapshotCache(ApplicationProperties applicationProperties) {
+        ConfigMapProperties properties = applicationProperties.getConfigMap();
+        this.enabled = properties.isGzipSnapshotEnabled();
+        this.compressionLevel = properties.getGzipSnapshotLevel();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get gzip encoded config map for map version, the previous snapshot is dropped when version changes.
+     *
+     * @param mapVersion current map version, see {@link ConfigurationService#getConfigurationMapVersion()}
+     * @param writer     writes the config map of this or a newer version as json
+     * @return gzip encoded config map
+     */
+    public byte[] getGzipSnapshot(String mapVersion, Consumer<OutputStream> writer) {
+        Snapshot current = snapshot;
+        if (current != null && current.getVersion().equals(mapVersion)) {
+            hits.incrementAndGet();
+            return current.getContent();
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && current.getVersion().equals(mapVersion)) {
+                hits.incrementAndGet();
+                return current.getContent();
+            }
+
+            long start = System.nanoTime();
+            byte[] content = compress(writer);
+            long time = System.nanoTime() - start;
+            builds.incrementAndGet();
+            buildTimeNanos.addAndGet(time);
+            log.info("Config map snapshot for version {} built, size: {} bytes, time: {} ms",
+                     mapVersion, content.length, TimeUnit.NANOSECONDS.toMillis(time));
+
+            snapshot = new Snapshot(mapVersion, content);
+            return content;
+        }
+    }
+
+    @SneakyThrows
+    private byte[] compress(Consumer<OutputStream> writer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new LeveledGzipOutputStream(out, compressionLevel)) {
+            writer.accept(gzip);
+        }
+        return out.toByteArray();
+    }
+
+    private long getSnapshotSize() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.getContent().length;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("config.map.snapshot.size", this, ConfigMapSnapshotCache::getSnapshotSize)
+             .description("Size of gzip encoded config map snapshot")
+             .baseUnit("bytes")
+             .register(registry);
+        FunctionCounter.builder("config.map.snapshot.hits", hits, AtomicLong::get)
+                       .description("Config map requests served from gzip snapshot")
+                       .register(registry);
+        FunctionTimer.builder("config.map.snapshot.build", this,
+                              cache -> cache.builds.get(), cache -> cache.buildTimeNanos.get(), TimeUnit.NANOSECONDS)
+                     .description("Time of gzip snapshot build")
+                     .register(registry);
+    }
+
+    @Value
+    private static class Snapshot {
+        private String version;
+        private byte[] content;
+    }
+
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
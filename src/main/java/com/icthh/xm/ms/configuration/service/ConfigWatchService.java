@@ -0,0 +1,269 @@
+package com.icthh.xm.ms.configuration.service;
+
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties.ConfigMapProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationWatchEvent;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal.ChangeListener;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal.Changes;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+
+/**
+ * Holds long-poll and event stream watchers of configuration changes. Watchers are woken up
+ * only by changes of the paths matched by their filter. Changes are delivered from a separate thread,
+ * so slow clients do not block configuration updates, and stream events are written by a stream pool,
+ * so a stalled stream does not block other watchers. Event version is the config map version
+ * to watch next changes since.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConfigWatchService implements ChangeListener {
+
+    private static final String CHANGE_EVENT = "change";
+    /** stream with more unsent events is considered stalled and closed */
+    private static final int MAX_PENDING_STREAM_EVENTS = 100;
+
+    private final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService notificationExecutor = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "config-watch-notifier"));
+    private final ExecutorService streamExecutor = Executors.newCachedThreadPool(
+        runnable -> new Thread(runnable, "config-watch-stream"));
+    private final AntPathMatcher matcher = new AntPathMatcher();
+
+    private final ConfigChangeJournal changeJournal;
+    private final ApplicationProperties applicationProperties;
+
+    @PostConstruct
+    public void init() {
+        changeJournal.addListener(this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        notificationExecutor.shutdownNow();
+        streamExecutor.shutdownNow();
+        watchers.forEach(Watcher::complete);
+        watchers.clear();
+    }
+
+    /**
+     * Wait for the first change of matched paths after version. Completed immediately if there were such changes
+     * already, or with 304 on timeout.
+     *
+     * @param since    version known by client, if blank - wait for the next change
+     * @param patterns paths or ant patterns, if empty - all paths
+     * @return deferred change event
+     */
+    public DeferredResult<ResponseEntity<ConfigurationWatchEvent>> watch(String since, Collection<String> patterns) {
+        ConfigMapProperties properties = applicationProperties.getConfigMap();
+        DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result =
+            new DeferredResult<>(properties.getWatchTimeoutMs(), ResponseEntity.status(NOT_MODIFIED).build());
+
+        Watcher watcher = new Watcher(toFilter(patterns)) {
+            @Override
+            boolean send(ConfigurationWatchEvent event) {
+                result.setResult(ResponseEntity.ok(event));
+                return false;
+            }
+
+            @Override
+            void complete() {
+                result.setResult(ResponseEntity.status(NOT_MODIFIED).build());
+            }
+        };
+        result.onCompletion(() -> watchers.remove(watcher));
+
+        // register before the journal check, so a change between them is not lost
+        watchers.add(watcher);
+        getMissedChanges(since, watcher.getFilter()).ifPresent(event -> deliver(watcher, event));
+        return result;
+    }
+
+    /**
+     * Stream events about changes of matched paths. Changes after version are sent first.
+     *
+     * @param since    version known by client, if blank - only next changes are sent
+     * @param patterns paths or ant patterns, if empty - all paths
+     * @return event stream
+     */
+    public SseEmitter stream(String since, Collection<String> patterns) {
+        SseEmitter emitter = new SseEmitter(applicationProperties.getConfigMap().getWatchStreamTimeoutMs());
+
+        Watcher watcher = new StreamWatcher(toFilter(patterns), emitter);
+        emitter.onCompletion(() -> watchers.remove(watcher));
+        emitter.onTimeout(() -> watchers.remove(watcher));
+
+        watchers.add(watcher);
+        getMissedChanges(since, watcher.getFilter()).ifPresent(event -> deliver(watcher, event));
+        return emitter;
+    }
+
+    private Optional<ConfigurationWatchEvent> getMissedChanges(String since, Predicate<String> filter) {
+        if (isBlank(since)) {
+            return Optional.empty();
+        }
+        Optional<Changes> changes = changeJournal.getChangesSince(since);
+        if (!changes.isPresent()) {
+            String version = changeJournal.getVersion();
+            log.info("Changes since version {} not found, reset watcher to version {}", since, version);
+            return Optional.of(new ConfigurationWatchEvent(version, true, emptySet()));
+        }
+        String version = changes.get().getVersion();
+        Set<String> paths = changes.get().getPaths().stream().filter(filter).collect(toSet());
+        return paths.isEmpty() ? Optional.empty() : Optional.of(new ConfigurationWatchEvent(version, false, paths));
+    }
+
+    @Override
+    public void onChange(String version, Set<String> paths) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        notificationExecutor.execute(() -> watchers.forEach(watcher -> {
+            Set<String> matched = paths.stream().filter(watcher.getFilter()).collect(toSet());
+            if (!matched.isEmpty()) {
+                deliver(watcher, new ConfigurationWatchEvent(version, false, matched));
+            }
+        }));
+    }
+
+    @Override
+    public void onReset(String version) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        notificationExecutor.execute(
+            () -> watchers.forEach(watcher -> deliver(watcher, new ConfigurationWatchEvent(version, true, emptySet()))));
+    }
+
+    public int getWatchersCount() {
+        return watchers.size();
+    }
+
+    private void deliver(Watcher watcher, ConfigurationWatchEvent event) {
+        if (!watcher.send(event)) {
+            watchers.remove(watcher);
+        }
+    }
+
+    private Predicate<String> toFilter(Collection<String> patterns) {
+        Collection<String> filter = patterns == null ? emptyList() : patterns;
+        return path -> filter.isEmpty() || filter.stream().anyMatch(pattern -> matcher.match(pattern, path));
+    }
+
+    @RequiredArgsConstructor
+    private abstract static class Watcher {
+
+        private final Predicate<String> filter;
+
+        Predicate<String> getFilter() {
+            return filter;
+        }
+
+        /**
+         * Send event to client.
+         *
+         * @return true if watcher should receive next events
+         */
+        abstract boolean send(ConfigurationWatchEvent event);
+
+        abstract void complete();
+    }
+
+    /**
+     * Queues events and writes them to the stream in the stream pool. If the client does not read
+     * and too many events are queued, the stream is closed and the client should reconnect with the last version.
+     */
+    private class StreamWatcher extends Watcher {
+
+        private final SseEmitter emitter;
+        private final Deque<ConfigurationWatchEvent> pending = new ArrayDeque<>();
+        private boolean sending;
+        private boolean closed;
+
+        StreamWatcher(Predicate<String> filter, SseEmitter emitter) {
+            super(filter);
+            this.emitter = emitter;
+        }
+
+        @Override
+        boolean send(ConfigurationWatchEvent event) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (pending.size() >= MAX_PENDING_STREAM_EVENTS) {
+                    log.warn("Watch stream is stalled with {} unsent events, close it", pending.size());
+                    closed = true;
+                    pending.clear();
+                    // complete waits for the stalled send, so it is not called in the notifier thread
+                    streamExecutor.execute(emitter::complete);
+                    return false;
+                }
+                pending.addLast(event);
+                if (sending) {
+                    return true;
+                }
+                sending = true;
+            }
+            streamExecutor.execute(this::sendPending);
+            return true;
+        }
+
+        private void sendPending() {
+            while (true) {
+                ConfigurationWatchEvent event;
+                synchronized (this) {
+                    event = pending.pollFirst();
+                    if (event == null || closed) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event().name(CHANGE_EVENT).id(event.getVersion()).data(event));
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Watch stream is closed: {}", e.getMessage());
+                    synchronized (this) {
+                        closed = true;
+                        pending.clear();
+                        sending = false;
+                    }
+                    watchers.remove(this);
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        void complete() {
+            emitter.complete();
+        }
+    }
+}
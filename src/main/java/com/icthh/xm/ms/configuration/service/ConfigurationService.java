@@ -1,20 +1,42 @@
 package com.icthh.xm.ms.configuration.service;
 
 import static com.icthh.xm.commons.tenant.TenantContextUtils.getRequiredTenantKeyValue;
+import static com.icthh.xm.ms.configuration.utils.ConfigPathUtils.getTenantPathPrefix;
+import static com.icthh.xm.ms.configuration.utils.JsonMergePatchUtils.mergePatch;
+import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.ANY_CONFIG_HASH;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.icthh.xm.commons.config.client.api.AbstractConfigService;
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.logging.LoggingAspectConfig;
 import com.icthh.xm.commons.tenant.TenantContextHolder;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
+import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
+import com.icthh.xm.ms.configuration.domain.ConfigurationList;
+import com.icthh.xm.ms.configuration.domain.ConfigurationUploadProgress;
 import com.icthh.xm.ms.configuration.repository.DistributedConfigRepository;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +44,8 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -31,9 +55,15 @@ import org.springframework.web.multipart.MultipartFile;
 @Service
 public class ConfigurationService extends AbstractConfigService implements InitializingBean {
 
+    private static final String JSON_EXTENSION = ".json";
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper ymlMapper = new ObjectMapper(new YAMLFactory());
+
     private final DistributedConfigRepository repositoryProxy;
     private final TenantContextHolder tenantContextHolder;
     private final DistributedConfigRepository inMemoryRepository;
+    private final ApplicationProperties applicationProperties;
 
     @Override
     @LoggingAspectConfig(resultDetails = false)
@@ -41,13 +71,20 @@ public class ConfigurationService extends AbstractConfigService implements Initi
         return inMemoryRepository.getMap(commit);
     }
 
+    @LoggingAspectConfig(resultDetails = false)
+    public List<byte[]> getSerializedConfigurationMap(String commit) {
+        return inMemoryRepository.getSerializedMap(commit);
+    }
+
     @Override
     @LoggingAspectConfig(resultDetails = false, inputCollectionAware = true)
     public Map<String, Configuration> getConfigurationMap(String commit, Collection<String> paths) {
-        Map<String, Configuration> map = getConfigurationMap(commit);
-        Map<String, Configuration> resultMap = new HashMap<>();
-        paths.forEach(path -> resultMap.put(path, map.get(path)));
-        return resultMap;
+        return inMemoryRepository.getMap(commit, paths);
+    }
+
+    @LoggingAspectConfig(resultDetails = false)
+    public ConfigurationChanges getConfigurationChanges(String since) {
+        return inMemoryRepository.getChanges(since);
     }
 
     public Optional<Configuration> findConfiguration(String path, String version) {
@@ -63,9 +100,42 @@ public class ConfigurationService extends AbstractConfigService implements Initi
         repositoryProxy.refreshInternal();
     }
 
+    public Page<ConfigurationCommit> findConfigurationHistory(String path, Pageable pageable) {
+        return repositoryProxy.findHistory(path, pageable);
+    }
+
+    public List<ConfigurationDiff> findConfigurationChanges(String fromVersion, String toVersion, String path) {
+        return repositoryProxy.findChanges(fromVersion, toVersion, path);
+    }
+
+    public String getConfigurationDiff(String fromVersion, String toVersion, String path) {
+        return repositoryProxy.diff(fromVersion, toVersion, path);
+    }
+
     public void createConfigurations(List<MultipartFile> files) {
-        List<Configuration> configurations = files.stream().map(this::toConfiguration).collect(toList());
-        repositoryProxy.saveAll(configurations);
+        createConfigurations(files, progress -> { });
+    }
+
+    /**
+     * Save uploaded files with one commit per batch of max batch size. Files are copied to the repository
+     * as streams and read to memory batch by batch, so a big upload does not hold all contents in heap.
+     * Upload is not atomic: if a batch fails, the previous batches stay committed.
+     *
+     * @param files            uploaded files, original file name is configuration path
+     * @param progressListener notified after each committed batch
+     */
+    public void createConfigurations(List<MultipartFile> files, Consumer<ConfigurationUploadProgress> progressListener) {
+        List<List<MultipartFile>> batches = toBatches(files);
+        int saved = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            List<MultipartFile> batch = batches.get(i);
+            Map<String, MultipartFile> sources = new LinkedHashMap<>();
+            batch.forEach(file -> sources.put(toPath(file), file));
+            String commit = repositoryProxy.saveAll(sources);
+            saved += batch.size();
+            progressListener.accept(new ConfigurationUploadProgress(saved, files.size(), i + 1, batches.size(),
+                                                                    commit, null));
+        }
     }
 
     public void updateConfiguration(Configuration configuration) {
@@ -76,13 +146,123 @@ public class ConfigurationService extends AbstractConfigService implements Initi
         repositoryProxy.save(configuration, oldConfigHash);
     }
 
+    /**
+     * Save configurations with one commit.
+     *
+     * @param configurations configurations to save, nothing is committed if empty
+     */
+    public void updateConfigurations(List<Configuration> configurations) {
+        if (!configurations.isEmpty()) {
+            repositoryProxy.saveAll(configurations);
+        }
+    }
+
+    /**
+     * Apply JSON Merge Patch (RFC 7396) to yml or json configuration under the git write lock.
+     * Configuration is committed only if the patched document differs from the current one.
+     *
+     * @param path          configuration path
+     * @param patch         merge patch in json
+     * @param oldConfigHash expected hash of current content, optional
+     * @return true if configuration was changed
+     * @throws IllegalArgumentException if patch is not valid json
+     */
+    public boolean patchConfiguration(String path, String patch, String oldConfigHash) {
+        JsonNode patchNode;
+        try {
+            patchNode = jsonMapper.readTree(patch);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid merge patch: " + e.getMessage(), e);
+        }
+        if (patchNode == null) {
+            throw new IllegalArgumentException("Merge patch is empty");
+        }
+        boolean json = path.endsWith(JSON_EXTENSION);
+        ObjectMapper mapper = json ? jsonMapper : ymlMapper;
+        ConfigurationItem item = repositoryProxy.update(path, content -> {
+            if (isNotBlank(oldConfigHash) && !isExpectedHash(oldConfigHash, content)) {
+                throw new ConcurrentConfigModificationException();
+            }
+            JsonNode current = readTree(mapper, content);
+            JsonNode patched = mergePatch(current, patchNode);
+            return patched.equals(current) ? content : writeTree(mapper, patched, json);
+        });
+        return item.getData() != null;
+    }
+
+    private static boolean isExpectedHash(String oldConfigHash, String content) {
+        if (ANY_CONFIG_HASH.equals(oldConfigHash)) {
+            return content != null;
+        }
+        return oldConfigHash.equals(sha1Hex(defaultString(content)));
+    }
+
+    @SneakyThrows
+    private static JsonNode readTree(ObjectMapper mapper, String content) {
+        return isBlank(content) ? null : mapper.readTree(content);
+    }
+
+    @SneakyThrows
+    private static String writeTree(ObjectMapper mapper, JsonNode tree, boolean pretty) {
+        return pretty ? mapper.writerWithDefaultPrettyPrinter().writeValueAsString(tree) : mapper.writeValueAsString(tree);
+    }
+
     public void updateConfigurationInMemory(Configuration configuration) {
         inMemoryRepository.updateConfigurationInMemory(configuration, inMemoryRepository.getCommitVersion());
     }
 
     public void updateConfigurationsInMemory(List<MultipartFile> files) {
-        List<Configuration> configurations = files.stream().map(this::toConfiguration).collect(toList());
-        inMemoryRepository.updateConfigurationsInMemory(configurations, inMemoryRepository.getCommitVersion());
+        for (List<MultipartFile> batch : toBatches(files)) {
+            List<Configuration> configurations = batch.stream().map(this::toConfiguration).collect(toList());
+            inMemoryRepository.updateConfigurationsInMemory(configurations, inMemoryRepository.getCommitVersion());
+        }
+    }
+
+    private <T> List<List<T>> toBatches(List<T> items) {
+        int batchSize = Math.max(1, applicationProperties.getUpload().getMaxBatchSize());
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += batchSize) {
+            batches.add(items.subList(from, Math.min(from + batchSize, items.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * Write zip archive of tenant configurations, entry names are relative to the tenant folder.
+     * Throws IllegalArgumentException if the tenant has no configurations in the version.
+     *
+     * @return exported commit
+     */
+    public String exportTenantConfigurations(String tenant, String version, OutputStream outputStream) {
+        return repositoryProxy.exportArchive(getTenantPathPrefix(tenant), version, outputStream);
+    }
+
+    /**
+     * Extract zip archive to the tenant folder in one commit, see {@link #exportTenantConfigurations}.
+     * Archive is merged into the folder: files are added or overwritten, files absent in the archive are kept.
+     *
+     * @return commit and imported configurations
+     */
+    public ConfigurationList importTenantConfigurations(String tenant, InputStream inputStream) {
+        return repositoryProxy.importArchive(getTenantPathPrefix(tenant), inputStream);
+    }
+
+    /**
+     * Create configurations of tenant as a copy of template tenant configurations in one commit.
+     *
+     * @return commit
+     */
+    public String cloneTenantConfigurations(String templateTenant, String tenant) {
+        return repositoryProxy.cloneFolder(getTenantPathPrefix(templateTenant), getTenantPathPrefix(tenant)).getCommit();
+    }
+
+    /**
+     * Restore configurations under path to their state in version, in one commit.
+     *
+     * @return commit and restored configurations
+     */
+    public ConfigurationChanges rollbackConfigurations(String path, String version) {
+        return repositoryProxy.rollbackFolder(path, version);
     }
 
     public void deleteConfiguration(String path) {
@@ -111,14 +291,25 @@ public class ConfigurationService extends AbstractConfigService implements Initi
 
     @SneakyThrows
     private Configuration toConfiguration(MultipartFile file) {
-        String path = StringUtils.replaceChars(file.getOriginalFilename(), File.separator, "/");
-        return new Configuration(path, IOUtils.toString(file.getInputStream(), UTF_8));
+        return new Configuration(toPath(file), IOUtils.toString(file.getInputStream(), UTF_8));
+    }
+
+    private String toPath(MultipartFile file) {
+        return StringUtils.replaceChars(file.getOriginalFilename(), File.separator, "/");
     }
 
     public String getVersion() {
         return inMemoryRepository.getCommitVersion();
     }
 
+    public String getConfigurationMapVersion() {
+        return inMemoryRepository.getMapVersion();
+    }
+
+    public String getConfigurationHash(Configuration configuration) {
+        return inMemoryRepository.getConfigHash(configuration);
+    }
+
     public void deleteConfigurationInMemory(List<String> paths) {
         inMemoryRepository.deleteAllInMemory(paths);
     }
@@ -0,0 +1,168 @@
+package com.icthh.xm.ms.configuration.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.SneakyThrows;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+
+/**
+ * Parsed trees of yml and json configurations shared by all components, keyed by content hash,
+ * so the same document is parsed once whoever reads it. The number of trees is bounded, least recently
+ * used trees are evicted. Trees returned by {@link #getTree} are shared and only read, consumers that
+ * hand trees to mappers get copies by {@link #getTreeCopy}. Hits and misses are reported per consumer.
+ */
+@Component
+public class ConfigurationTreeCache implements MeterBinder {
+
+    public static final String ADMIN_API = "admin-api";
+    public static final String YML_TO_JSON = "yml-to-json";
+    public static final String TENANT_ALIASES = "tenant-aliases";
+    public static final String TENANT_CONFIG = "tenant-config";
+    public static final String TENANTS_LIST = "tenants-list";
+
+    private static final String JSON_EXTENSION = ".json";
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper ymlMapper = new ObjectMapper(new YAMLFactory());
+    private final Map<String, JsonNode> cache;
+    private final ConcurrentMap<String, ConsumerStats> stats = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    public ConfigurationTreeCache(ApplicationProperties applicationProperties) {
+        int maxSize = applicationProperties.getTreeCache().getMaxSize();
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, JsonNode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JsonNode> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Get parsed tree of configuration content.
+     *
+     * @param consumer      name of the reading component, used in metrics
+     * @param configuration configuration, json is parsed for .json paths, yml for others
+     * @return parsed tree, missing node for empty content
+     */
+    public JsonNode getTree(String consumer, Configuration configuration) {
+        return getTree(consumer, configuration.getPath(), null, configuration.getContent());
+    }
+
+    /**
+     * Get parsed tree of configuration content.
+     *
+     * @param consumer name of the reading component, used in metrics
+     * @param path     configuration path, json is parsed for .json paths, yml for others
+     * @param hash     content hash if known, see {@link ConfigurationService#getConfigurationHash(Configuration)}
+     * @param content  configuration content
+     * @return parsed tree, missing node for empty content
+     */
+    public JsonNode getTree(String consumer, String path, String hash, String content) {
+        if (content == null) {
+            return MissingNode.getInstance();
+        }
+        boolean json = path.endsWith(JSON_EXTENSION);
+        String key = (json ? "json:" : "yml:") + (hash == null ? sha1Hex(content) : hash);
+        ConsumerStats consumerStats = getStats(consumer);
+        JsonNode tree = cache.get(key);
+        if (tree != null) {
+            consumerStats.hits.incrementAndGet();
+            return tree;
+        }
+        consumerStats.misses.incrementAndGet();
+        tree = parse(json, content);
+        cache.put(key, tree);
+        return tree;
+    }
+
+    /**
+     * Get parsed tree of configuration content, that is not shared with other consumers.
+     *
+     * @param consumer      name of the reading component, used in metrics
+     * @param configuration configuration, json is parsed for .json paths, yml for others
+     * @return copy of parsed tree, missing node for empty content
+     */
+    public JsonNode getTreeCopy(String consumer, Configuration configuration) {
+        return getTreeCopy(consumer, configuration.getPath(), null, configuration.getContent());
+    }
+
+    /**
+     * Get parsed tree of configuration content, that is not shared with other consumers.
+     *
+     * @param consumer name of the reading component, used in metrics
+     * @param path     configuration path, json is parsed for .json paths, yml for others
+     * @param hash     content hash if known, see {@link ConfigurationService#getConfigurationHash(Configuration)}
+     * @param content  configuration content
+     * @return copy of parsed tree, missing node for empty content
+     */
+    public JsonNode getTreeCopy(String consumer, String path, String hash, String content) {
+        return getTree(consumer, path, hash, content).deepCopy();
+    }
+
+    @SneakyThrows
+    private JsonNode parse(boolean json, String content) {
+        JsonNode tree = json ? jsonMapper.readTree(content) : ymlMapper.readTree(content);
+        return tree == null ? MissingNode.getInstance() : tree;
+    }
+
+    private ConsumerStats getStats(String consumer) {
+        ConsumerStats consumerStats = stats.get(consumer);
+        if (consumerStats == null) {
+            consumerStats = stats.computeIfAbsent(consumer, ConsumerStats::new);
+            MeterRegistry meterRegistry = registry;
+            if (meterRegistry != null) {
+                consumerStats.register(meterRegistry);
+            }
+        }
+        return consumerStats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        stats.values().forEach(consumerStats -> consumerStats.register(registry));
+        Gauge.builder("config.tree.cache.size", cache, Map::size)
+             .description("Number of cached configuration trees")
+             .register(registry);
+    }
+
+    private static class ConsumerStats {
+
+        private final String consumer;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        ConsumerStats(String consumer) {
+            this.consumer = consumer;
+        }
+
+        void register(MeterRegistry registry) {
+            FunctionCounter.builder("config.tree.cache.hits", hits, AtomicLong::get)
+                           .tag("consumer", consumer)
+                           .description("Configuration trees served from cache")
+                           .register(registry);
+            FunctionCounter.builder("config.tree.cache.misses", misses, AtomicLong::get)
+                           .tag("consumer", consumer)
+                           .description("Configuration trees parsed on request")
+                           .register(registry);
+        }
+    }
+}
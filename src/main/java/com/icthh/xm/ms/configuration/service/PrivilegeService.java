@@ -10,24 +10,33 @@ import com.icthh.xm.commons.permission.domain.Privilege;
 import com.icthh.xm.commons.permission.domain.mapper.PermissionMapper;
 import com.icthh.xm.commons.permission.domain.mapper.PrivilegeMapper;
 import com.icthh.xm.commons.request.XmRequestContextHolder;
-import com.icthh.xm.commons.tenant.Tenant;
-import com.icthh.xm.commons.tenant.TenantContextHolder;
-import com.icthh.xm.commons.tenant.TenantContextUtils;
-import com.icthh.xm.commons.tenant.TenantKey;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.MDC;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -37,13 +46,21 @@ import java.util.stream.Collectors;
 public class PrivilegeService {
 
     private static final String NONE_TENANT = "[no tenant]";
+    private static final int PERMISSIONS_SYNC_THREADS = Runtime.getRuntime().availableProcessors();
 
     private final PermissionProperties properties;
     private final ConfigurationService configurationService;
     private final TenantService tenantService;
-    private final TenantContextHolder tenantContextHolder;
     private final XmRequestContextHolder requestContextHolder;
 
+    private final ExecutorService permissionsExecutor = Executors.newFixedThreadPool(
+        PERMISSIONS_SYNC_THREADS, runnable -> new Thread(runnable, "permissions-sync"));
+
+    @PreDestroy
+    public void destroy() {
+        permissionsExecutor.shutdownNow();
+    }
+
     /**
      * Update old privileges config with new.
      *
@@ -52,62 +69,91 @@ public class PrivilegeService {
      */
     @LoggingAspectConfig(inputExcludeParams = "privileges")
     public synchronized void updatePrivileges(String appName, Set<Privilege> privileges) {
-        Objects.requireNonNull(appName, "appName can't be null");
-        if (StringUtils.isBlank(appName)) {
-            throw new IllegalArgumentException("appName can't be blank");
-        }
+        updatePrivileges(Collections.singletonMap(appName, privileges));
+    }
 
-        if (CollectionUtils.isEmpty(privileges)) {
-            log.info("[{}] Privileges collection is empty, ignore update, app/ms: '{}'",
-                     getRequestSourceTypeLogName(requestContextHolder),
-                     appName);
-        } else {
-            if (updateAppPrivilegesConfig(appName, privileges)) {
-                updateAppPermissionsConfig(appName, privileges);
-                log.info("[{}] Privileges config was updated, app/ms: '{}'",
-                         getRequestSourceTypeLogName(requestContextHolder), appName);
+    /**
+     * Update old privileges config with new privileges of several apps. Privileges config and permissions
+     * of all tenants are saved with one commit. If saving fails, the exception is thrown and nothing is saved.
+     *
+     * @param privilegesByApp the privileges by ms/app name
+     */
+    @LoggingAspectConfig(inputExcludeParams = "privilegesByApp")
+    public synchronized void updatePrivileges(Map<String, Set<Privilege>> privilegesByApp) {
+        Map<String, Set<Privilege>> appPrivileges = new TreeMap<>();
+        privilegesByApp.forEach((appName, privileges) -> {
+            Objects.requireNonNull(appName, "appName can't be null");
+            if (StringUtils.isBlank(appName)) {
+                throw new IllegalArgumentException("appName can't be blank");
+            }
+
+            if (CollectionUtils.isEmpty(privileges)) {
+                log.info("[{}] Privileges collection is empty, ignore update, app/ms: '{}'",
+                         getRequestSourceTypeLogName(requestContextHolder),
+                         appName);
+            } else {
+                appPrivileges.put(appName, privileges);
             }
+        });
+        if (appPrivileges.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> changedConfigs = new LinkedHashMap<>();
+        Set<String> updatedApps = updateAppPrivilegesConfig(appPrivileges, changedConfigs);
+        updatePermissionsConfigs(appPrivileges, updatedApps)
+            .forEach(configuration -> changedConfigs.put(configuration.getPath(), configuration.getContent()));
+        if (saveConfigs(changedConfigs) && !updatedApps.isEmpty()) {
+            log.info("[{}] Privileges config was updated, app/ms: '{}'",
+                     getRequestSourceTypeLogName(requestContextHolder), updatedApps);
         }
     }
 
     /**
-     * Update application privileges config.
+     * Update applications privileges config.
      *
-     * @param appName          the application name (or ms name)
-     * @param appPrivilegesNew not null and not empty collection of app new privileges
-     * @return {@code true} if {@code appName} application privileges was updated
+     * @param appPrivilegesNew not null and not empty collections of apps new privileges
+     * @param changedConfigs   changed config contents by path
+     * @return names of applications with updated privileges
      */
-    private boolean updateAppPrivilegesConfig(final String appName,
-                                              final Set<Privilege> appPrivilegesNew) {
+    private Set<String> updateAppPrivilegesConfig(final Map<String, Set<Privilege>> appPrivilegesNew,
+                                                  final Map<String, String> changedConfigs) {
         Optional<String> commonPrivilegesYml = getConfig(null, properties.getPrivilegesSpecPath());
 
         // if common privileges config doesn't exist yet
         if (!commonPrivilegesYml.isPresent()) {
-            Map<String, Collection<Privilege>> commonPrivileges = new TreeMap<>();
-            commonPrivileges.put(appName, appPrivilegesNew);
+            Map<String, Collection<Privilege>> commonPrivileges = new TreeMap<>(appPrivilegesNew);
 
-            // first common privileges config creation (with only one app/ms privileges)
-            createConfig(properties.getPrivilegesSpecPath(), PrivilegeMapper.privilegesMapToYml(commonPrivileges));
-        } else {
-            Map<String, Collection<Privilege>> currentPrivileges = parsePrivilegesConfig(commonPrivilegesYml.get());
+            // first common privileges config creation (with only events apps/ms privileges)
+            changedConfigs.put(properties.getPrivilegesSpecPath(),
+                               PrivilegeMapper.privilegesMapToYml(commonPrivileges));
+            log.info("[{}] Config will be created '{}'", getRequestSourceTypeLogName(requestContextHolder),
+                     properties.getPrivilegesSpecPath());
+            return Collections.emptySet();
+        }
+
+        Map<String, Collection<Privilege>> currentPrivileges = parsePrivilegesConfig(commonPrivilegesYml.get());
+        Set<String> updatedApps = new TreeSet<>();
+        appPrivilegesNew.forEach((appName, privileges) -> {
             Collection<Privilege> appPrivilegesCurrent = currentPrivileges.get(appName);
 
             // check is privileges collection has changes for <appName> application ?
             if (appPrivilegesCurrent != null
-                && CollectionUtils.isEqualCollection(appPrivilegesCurrent, appPrivilegesNew)) {
+                && CollectionUtils.isEqualCollection(appPrivilegesCurrent, privileges)) {
                 log.info("[{}] Privileges are not modified, app/ms: '{}'",
                          getRequestSourceTypeLogName(requestContextHolder), appName);
             } else {
                 // replace app privileges in current common config file
-                currentPrivileges.put(appName, appPrivilegesNew);
-
-                return updateConfig(null,
-                                    properties.getPrivilegesSpecPath(),
-                                    PrivilegeMapper.privilegesMapToYml(currentPrivileges));
+                currentPrivileges.put(appName, privileges);
+                updatedApps.add(appName);
             }
-        }
+        });
 
-        return false;
+        if (!updatedApps.isEmpty()) {
+            changedConfigs.put(properties.getPrivilegesSpecPath(),
+                               PrivilegeMapper.privilegesMapToYml(currentPrivileges));
+        }
+        return updatedApps;
     }
 
     private static Map<String, Collection<Privilege>> parsePrivilegesConfig(String yml) {
@@ -115,53 +161,88 @@ public class PrivilegeService {
         return new TreeMap<>(PrivilegeMapper.ymlToPrivileges(yml));
     }
 
-    private void updateAppPermissionsConfig(String appName, Set<Privilege> newPrivileges) {
-        // Get new privileges keys
-        List<String> newPrivilegeKeys = newPrivileges.stream().map(Privilege::getKey).collect(Collectors.toList());
-
-        // for each tenant update his permissions.yml
-        tenantService.getTenants(appName).forEach(tenantState -> {
-            Tenant currentTenant = TenantContextUtils.buildTenant(tenantState.getName());
-            // execute in tenant context
-            tenantContextHolder.getPrivilegedContext().execute(currentTenant,
-                                                               () ->
-                                                                   updateTenantPermissions(appName,
-                                                                                           currentTenant.getTenantKey(),
-                                                                                           newPrivilegeKeys));
+    /**
+     * Sync permissions of all tenants of updated apps. Tenants are processed in parallel on in-memory
+     * configurations with the caller MDC, every permissions config is parsed once for all apps,
+     * and only changed configs are returned.
+     */
+    private List<Configuration> updatePermissionsConfigs(Map<String, Set<Privilege>> appPrivileges,
+                                                         Set<String> updatedApps) {
+        String sourceType = getRequestSourceTypeLogName(requestContextHolder);
+        Map<String, Set<String>> privilegeKeysByApp = new TreeMap<>();
+        Map<String, Set<String>> appsByTenant = new TreeMap<>();
+        updatedApps.forEach(appName -> {
+            // Get new privileges keys
+            privilegeKeysByApp.put(appName, appPrivileges.get(appName).stream().map(Privilege::getKey)
+                                                         .collect(Collectors.toSet()));
+            tenantService.getTenants(appName).forEach(
+                tenantState -> appsByTenant.computeIfAbsent(tenantState.getName(), tenant -> new TreeSet<>())
+                                           .add(appName));
         });
-    }
 
-    private void updateTenantPermissions(String appName, TenantKey tenantKey, List<String> newPrivilegeKeys) {
-        log.info("[{}] Updating permissions for tenant: '{}', app/ms: '{}'",
-                 getRequestSourceTypeLogName(requestContextHolder), tenantKey.getValue(), appName);
-
-        // get permissions config text
-        Optional<String> oldPermissionsYml = getConfig(tenantKey.getValue(), properties.getPermissionsSpecPath());
+        List<Future<Optional<Configuration>>> results = new ArrayList<>();
+        appsByTenant.forEach((tenant, appNames) -> results.add(permissionsExecutor.submit(
+            withMdc(() -> updateTenantPermissions(sourceType, tenant, appNames, privilegeKeysByApp)))));
+        return results.stream()
+            .map(PrivilegeService::getResult)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .collect(Collectors.toList());
+    }
 
-        // if yaml text exist and not blank
-        oldPermissionsYml.filter(StringUtils::isNotBlank).ifPresent(oldPermissionsYmlData -> {
-            // parse permissions.yml to map
-            Map<String, Permission> oldPermissions = PermissionMapper.ymlToPermissions(oldPermissionsYmlData);
+    private static <T> Callable<T> withMdc(Callable<T> task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            if (context != null) {
+                MDC.setContextMap(context);
+            }
+            try {
+                return task.call();
+            } finally {
+                MDC.clear();
+            }
+        };
+    }
 
-            syncPermissionsWithPrivileges(tenantKey.getValue(), appName, newPrivilegeKeys, oldPermissions);
-        });
+    private static <T> T getResult(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Permissions sync is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error sync permissions", e.getCause());
+        }
     }
 
+    private Optional<Configuration> updateTenantPermissions(String sourceType, String tenant, Set<String> appNames,
+                                                            Map<String, Set<String>> privilegeKeysByApp) {
+        log.info("[{}] Updating permissions for tenant: '{}', app/ms: '{}'", sourceType, tenant, appNames);
 
-    private void syncPermissionsWithPrivileges(String tenantKeyValue,
-                                               String appName,
-                                               List<String> newPrivilegeKeys,
-                                               Map<String, Permission> oldPermissions) {
-        // for each value (permission) perform closure and collect permissions as set
-        Collection<Permission> newPermissions = oldPermissions.values().stream()
-            .peek(syncPermission(appName, newPrivilegeKeys)).collect(Collectors.toSet());
+        // get permissions config text, if yaml text exist and not blank
+        return getConfig(tenant, properties.getPermissionsSpecPath())
+            .filter(StringUtils::isNotBlank)
+            .flatMap(oldPermissionsYml -> {
+                // parse permissions.yml to map
+                Map<String, Permission> permissions = PermissionMapper.ymlToPermissions(oldPermissionsYml);
+                appNames.forEach(appName -> permissions.values()
+                    .forEach(syncPermission(appName, privilegeKeysByApp.get(appName))));
 
-        updateConfig(tenantKeyValue,
-                     properties.getPermissionsSpecPath(),
-                     PermissionMapper.permissionsToYml(newPermissions));
+                String newPermissionsYml = PermissionMapper.permissionsToYml(new HashSet<>(permissions.values()));
+                // compare with the old config written by the mapper, so formatting of a manually edited file
+                // does not trigger a rewrite
+                String oldMappedYml = PermissionMapper.permissionsToYml(
+                    new HashSet<>(PermissionMapper.ymlToPermissions(oldPermissionsYml).values()));
+                if (newPermissionsYml.equals(oldMappedYml)) {
+                    log.info("[{}] Permissions are not modified for tenant: '{}'", sourceType, tenant);
+                    return Optional.empty();
+                }
+                return Optional.of(new Configuration(applyTenant(properties.getPermissionsSpecPath(), tenant),
+                                                     newPermissionsYml));
+            });
     }
 
-    private Consumer<Permission> syncPermission(String appName, List<String> newPrivilegeKeys) {
+    private Consumer<Permission> syncPermission(String appName, Set<String> newPrivilegeKeys) {
         return permission -> {
             // check permissions only for specified app
             if (appName.equalsIgnoreCase(permission.getMsName())) {
@@ -184,29 +265,17 @@ public class PrivilegeService {
         return Optional.empty();
     }
 
-    private boolean updateConfig(String tenantKeyValue, String path, String content) {
-        try {
-            configurationService.updateConfiguration(new Configuration(applyTenant(path, tenantKeyValue), content));
-            log.info("[{}] Config '{}' updated for tenant '{}'",
-                     getRequestSourceTypeLogName(requestContextHolder),
-                     path, StringUtils.defaultIfBlank(tenantKeyValue, NONE_TENANT));
-            return true;
-        } catch (Exception e) {
-            log.error("[{}] Error updating configuration '{}' for tenant '{}'",
-                      getRequestSourceTypeLogName(requestContextHolder),
-                      path, StringUtils.defaultIfBlank(tenantKeyValue, NONE_TENANT), e);
-        }
-        return false;
-    }
-
-    private void createConfig(String path, String content) {
-        try {
-            configurationService.updateConfiguration(new Configuration(path, content));
-            log.info("[{}] Config created '{}'", getRequestSourceTypeLogName(requestContextHolder), path);
-        } catch (Exception e) {
-            log.error("[{}] Error creating configuration '{}'", getRequestSourceTypeLogName(requestContextHolder),
-                      path, e);
+    private boolean saveConfigs(Map<String, String> changedConfigs) {
+        if (changedConfigs.isEmpty()) {
+            return false;
         }
+        List<Configuration> configurations = new ArrayList<>();
+        changedConfigs.forEach((path, content) -> configurations.add(new Configuration(path, content)));
+        // failure is propagated, so the caller can retry the update
+        configurationService.updateConfigurations(configurations);
+        log.info("[{}] Configs updated: {}", getRequestSourceTypeLogName(requestContextHolder),
+                 changedConfigs.keySet());
+        return true;
     }
 
     private static String applyTenant(String path, String tenant) {
@@ -2,6 +2,7 @@ package com.icthh.xm.ms.configuration.service;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
@@ -18,6 +19,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.TENANT_ALIASES;
+
 /**
  * Listen change of tenantAliasTree. Using PublicConfigurationProcessor because using RefreshableConfiguration cause
  * unresolvable cyclic dependency.
@@ -29,12 +32,14 @@ public class TenantAliasService implements PublicConfigurationProcessor {
     public static final String TENANT_ALIAS_CONFIG = "/config/tenants/tenant-aliases.yml";
     private final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
     private final ConfigurationService configurationService;
+    private final ConfigurationTreeCache treeCache;
 
     @Getter
     private volatile TenantAliasTree tenantAliasTree = new TenantAliasTree();
 
-    public TenantAliasService(@Lazy ConfigurationService configurationService) {
+    public TenantAliasService(@Lazy ConfigurationService configurationService, ConfigurationTreeCache treeCache) {
         this.configurationService = configurationService;
+        this.treeCache = treeCache;
     }
 
     @Override
@@ -47,7 +52,12 @@ public class TenantAliasService implements PublicConfigurationProcessor {
                                                     Map<String, Configuration> originalStorage,
                                                     Map<String, Configuration> targetStorage) {
         try {
-            TenantAliasTree tenantAliasTree = mapper.readValue(configuration.getContent(), TenantAliasTree.class);
+            JsonNode tree = treeCache.getTreeCopy(TENANT_ALIASES, configuration);
+            if (tree.isMissingNode() || tree.isNull()) {
+                log.error("Tenant alias config is empty");
+                return Collections.emptyList();
+            }
+            TenantAliasTree tenantAliasTree = mapper.treeToValue(tree, TenantAliasTree.class);
             tenantAliasTree.init();
             // safe publication
             this.tenantAliasTree = tenantAliasTree;
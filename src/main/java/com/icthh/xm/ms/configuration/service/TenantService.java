@@ -1,10 +1,12 @@
 package com.icthh.xm.ms.configuration.service;
 
 import static com.icthh.xm.ms.configuration.config.BeanConfiguration.TENANT_CONFIGURATION_LOCK;
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.TENANTS_LIST;
 import static com.icthh.xm.ms.configuration.utils.LockUtils.runWithLock;
 import static java.util.Collections.emptySet;
 
 import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.ms.configuration.config.ApplicationProperties;
@@ -32,12 +34,16 @@ public class TenantService {
 
     private final GitProperties gitProperties;
 
+    private final ConfigurationTreeCache treeCache;
+
     public TenantService(ConfigurationService configurationService,
                          @Qualifier(TENANT_CONFIGURATION_LOCK) Lock lock,
-                         ApplicationProperties applicationProperties) {
+                         ApplicationProperties applicationProperties,
+                         ConfigurationTreeCache treeCache) {
         this.configurationService = configurationService;
         this.lock = lock;
         this.gitProperties = applicationProperties.getGit();
+        this.treeCache = treeCache;
     }
 
     public void addTenant(String serviceName, String tenantKey) {
@@ -85,12 +91,18 @@ public class TenantService {
             return new HashMap<>();
         }
         Configuration configuration = maybeConfiguration.get();
+        JsonNode tree = treeCache.getTreeCopy(TENANTS_LIST, CONFIG_LIST_STORAGE,
+                                              configurationService.getConfigurationHash(configuration),
+                                              configuration.getContent());
+        if (tree.isMissingNode() || tree.isNull()) {
+            return new HashMap<>();
+        }
 
         JavaType setType = om.getTypeFactory().constructCollectionType(Set.class, TenantState.class);
         JavaType stringType = om.getTypeFactory().constructType(String.class);
         JavaType mapType = om.getTypeFactory().constructMapType(Map.class, stringType, setType);
 
-        return om.readValue(configuration.getContent(), mapType);
+        return om.convertValue(tree, mapType);
     }
 
     public Set<TenantState> getTenants(String serviceName) {
@@ -0,0 +1,174 @@
+package com.icthh.xm.ms.configuration.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties.YmlToJsonProperties;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal.ChangeListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.YML_TO_JSON;
+
+/**
+ * Json converted from yml configurations for ?toJson reads, keyed by path and valid only for the same content hash.
+ * Entries are dropped when storage changes the path. Paths matched by eager patterns are converted in advance,
+ * so browsers reading webapp settings do not wait for conversion after configuration update.
+ */
+@Slf4j
+@Component
+public class YmlToJsonConversionCache implements ChangeListener, MeterBinder {
+
+    private static final String YML_EXTENSION = ".yml";
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final ConcurrentMap<String, JsonEntry> cache = new ConcurrentHashMap<>();
+    private final ExecutorService precomputeExecutor = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "yml-to-json-precompute"));
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final boolean enabled;
+    private final List<String> eagerPathPatterns;
+    private final ConfigChangeJournal changeJournal;
+    private final ConfigurationService configurationService;
+    private final ConfigurationTreeCache treeCache;
+
+    public YmlToJsonConversionCache(ApplicationProperties applicationProperties,
+                                    ConfigChangeJournal changeJournal,
+                                    ConfigurationService configurationService,
+                                    ConfigurationTreeCache treeCache) {
+        YmlToJsonProperties properties = applicationProperties.getYmlToJson();
+        this.enabled = properties.isCacheEnabled();
+        this.eagerPathPatterns = properties.getEagerPathPatterns();
+        this.changeJournal = changeJournal;
+        this.configurationService = configurationService;
+        this.treeCache = treeCache;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            changeJournal.addListener(this);
+            precomputeExecutor.execute(this::precomputeAll);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        precomputeExecutor.shutdownNow();
+    }
+
+    /**
+     * Convert yml content to json.
+     *
+     * @param path    configuration path
+     * @param hash    content hash, see {@link ConfigurationService#getConfigurationHash(Configuration)}
+     * @param content yml content
+     * @return json
+     */
+    public String toJson(String path, String hash, String content) {
+        if (!enabled || hash == null) {
+            return convert(path, hash, content);
+        }
+        JsonEntry entry = cache.get(path);
+        if (entry != null && entry.getHash().equals(hash)) {
+            hits.incrementAndGet();
+            return entry.getJson();
+        }
+        misses.incrementAndGet();
+        String json = convert(path, hash, content);
+        cache.put(path, new JsonEntry(hash, json));
+        return json;
+    }
+
+    boolean isCached(String path, String hash) {
+        JsonEntry entry = cache.get(path);
+        return entry != null && entry.getHash().equals(hash);
+    }
+
+    @SneakyThrows
+    private String convert(String path, String hash, String yml) {
+        return jsonMapper.writeValueAsString(treeCache.getTree(YML_TO_JSON, path, hash, yml));
+    }
+
+    @Override
+    public void onChange(String version, Set<String> paths) {
+        paths.forEach(cache::remove);
+        if (!eagerPathPatterns.isEmpty()) {
+            precomputeExecutor.execute(() -> precompute(paths));
+        }
+    }
+
+    @Override
+    public void onReset(String version) {
+        cache.clear();
+        precomputeExecutor.execute(this::precomputeAll);
+    }
+
+    private void precomputeAll() {
+        if (!eagerPathPatterns.isEmpty()) {
+            precompute(configurationService.getConfigurationMap(null, eagerPathPatterns).keySet());
+        }
+    }
+
+    private void precompute(Collection<String> paths) {
+        paths.stream()
+             .filter(path -> path.endsWith(YML_EXTENSION))
+             .filter(path -> eagerPathPatterns.stream().anyMatch(pattern -> matcher.match(pattern, path)))
+             .forEach(this::precompute);
+    }
+
+    private void precompute(String path) {
+        try {
+            configurationService.findConfiguration(path).ifPresent(configuration -> {
+                String hash = configurationService.getConfigurationHash(configuration);
+                if (hash != null) {
+                    cache.put(path, new JsonEntry(hash, convert(path, hash, configuration.getContent())));
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Error convert configuration {} to json: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("config.yml.to.json.cache.hits", hits, AtomicLong::get)
+                       .description("Json conversions served from cache")
+                       .register(registry);
+        FunctionCounter.builder("config.yml.to.json.cache.misses", misses, AtomicLong::get)
+                       .description("Json conversions done on request")
+                       .register(registry);
+        Gauge.builder("config.yml.to.json.cache.size", cache, Map::size)
+             .description("Number of cached json conversions")
+             .register(registry);
+    }
+
+    @Value
+    private static class JsonEntry {
+        private String hash;
+        private String json;
+    }
+}
@@ -13,4 +13,12 @@ public interface ConfigurationProcessor {
                                              Map<String, Configuration> originalStorage,
                                              Map<String, Configuration> targetStorage);
 
+    /**
+     * Forget results remembered for removed configuration.
+     *
+     * @param path removed configuration path
+     */
+    default void onRemove(String path) {
+    }
+
 }
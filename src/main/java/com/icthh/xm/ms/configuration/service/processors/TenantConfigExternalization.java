@@ -1,40 +1,79 @@
 package com.icthh.xm.ms.configuration.service.processors;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.service.ConfigurationTreeCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import org.springframework.util.AntPathMatcher;
 
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 import static com.icthh.xm.commons.config.client.service.TenantConfigService.DEFAULT_TENANT_CONFIG_PATTERN;
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.TENANT_CONFIG;
 import static java.lang.System.getenv;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
-import static java.util.stream.Collectors.toList;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.apache.commons.lang.StringUtils.defaultString;
 import static org.apache.commons.lang.StringUtils.isBlank;
+import static org.apache.commons.lang.StringUtils.remove;
 import static org.springframework.core.Ordered.LOWEST_PRECEDENCE;
 
+/**
+ * Overrides tenant-config.yml values by environment variables {@code <TENANT>_<key>_<nested key>}.
+ * Result is remembered per path for the same content, so reprocessing of unchanged tenant configs does not
+ * parse and serialize them again. Environment is read once on creation, so it is not a part of the key.
+ */
 @Slf4j
 @Component
 @Order(LOWEST_PRECEDENCE)
-public class TenantConfigExternalization implements PrivateConfigurationProcessor {
+public class TenantConfigExternalization implements PrivateConfigurationProcessor, MeterBinder {
 
     private final AntPathMatcher matcher = new AntPathMatcher();
     private final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
     private static final String TENANT_NAME = "tenantName";
-    private final Map<String, String> env = getenv();
+    /** environment variables sorted by name, so exact and prefix lookups do not scan all variables */
+    private final NavigableMap<String, String> env;
+    private final ConcurrentMap<String, ProcessedEntry> processed = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final ConfigurationTreeCache treeCache;
+
+    @Autowired
+    public TenantConfigExternalization(ConfigurationTreeCache treeCache) {
+        this(getenv(), treeCache);
+    }
+
+    public TenantConfigExternalization(Map<String, String> env, ConfigurationTreeCache treeCache) {
+        this.env = new TreeMap<>(env);
+        this.treeCache = treeCache;
+    }
 
     @Override
     public boolean isSupported(Configuration configuration) {
@@ -42,16 +81,41 @@ public class TenantConfigExternalization implements PrivateConfigurationProcesso
     }
 
     @Override
-    @SneakyThrows
     public List<Configuration> processConfiguration(Configuration configuration,
                                                     Map<String, Configuration> originalStorage,
                                                     Map<String, Configuration> targetStorage) {
+        String path = configuration.getPath();
+        String contentHash = sha1Hex(defaultString(configuration.getContent()));
+        ProcessedEntry entry = processed.get(path);
+        if (entry != null && entry.getContentHash().equals(contentHash)) {
+            hits.incrementAndGet();
+            return entry.getContent() == null ? emptyList()
+                                              : singletonList(new Configuration(path, entry.getContent()));
+        }
+        misses.incrementAndGet();
+        List<Configuration> result = externalize(configuration, contentHash);
+        processed.put(path, new ProcessedEntry(contentHash, result.isEmpty() ? null : result.get(0).getContent()));
+        return result;
+    }
+
+    @Override
+    public void onRemove(String path) {
+        processed.remove(path);
+    }
+
+    @SneakyThrows
+    private List<Configuration> externalize(Configuration configuration, String contentHash) {
         String tenant = matcher.extractUriTemplateVariables(DEFAULT_TENANT_CONFIG_PATTERN, configuration.getPath()).get(TENANT_NAME);
-        Map<String, Object> configMap = mapper.readValue(configuration.getContent(),
-                new TypeReference<Map<String, Object>>() {
+        if (!isEnvPresent(tenant + "_")) {
+            return emptyList();
+        }
+        JsonNode tree = treeCache.getTreeCopy(TENANT_CONFIG, configuration.getPath(), contentHash,
+                                              configuration.getContent());
+        Map<String, Object> configMap = tree.isMissingNode() || tree.isNull() ? null
+            : mapper.convertValue(tree, new TypeReference<Map<String, Object>>() {
         });
 
-        if (configMap != null && isEnvPresent(tenant + "_")) {
+        if (configMap != null) {
             processConfigMap(tenant, configMap);
         } else {
             return emptyList();
@@ -92,11 +156,20 @@ public class TenantConfigExternalization implements PrivateConfigurationProcesso
     }
 
     private List<String> getEnvKeysStartBy(String path) {
-        return env.keySet().stream().filter(it -> checkPathVariants(path, it::startsWith)).collect(toList());
+        Set<String> keys = new LinkedHashSet<>();
+        for (String variant : getPathVariants(path)) {
+            for (String key : env.tailMap(variant, true).keySet()) {
+                if (!key.startsWith(variant)) {
+                    break;
+                }
+                keys.add(key);
+            }
+        }
+        return new ArrayList<>(keys);
     }
 
     private boolean isEnvExactlyPresent(String path) {
-        return env.keySet().stream().anyMatch(it -> checkPathVariants(path, env::containsKey));
+        return checkPathVariants(path, env::containsKey);
     }
 
     private boolean isSimpleValueType(Object object) {
@@ -104,7 +177,12 @@ public class TenantConfigExternalization implements PrivateConfigurationProcesso
     }
 
     private boolean isEnvPresent(String path) {
-        return env.keySet().stream().anyMatch(it -> checkPathVariants(path, it::startsWith));
+        return checkPathVariants(path, this::isEnvKeyStartBy);
+    }
+
+    private boolean isEnvKeyStartBy(String prefix) {
+        String key = env.ceilingKey(prefix);
+        return key != null && key.startsWith(prefix);
     }
 
     private boolean checkPathVariants(String path, Predicate<String> predicate) {
@@ -113,7 +191,7 @@ public class TenantConfigExternalization implements PrivateConfigurationProcesso
 
     private List<String> getPathVariants(String path) {
         String upperCasePath = path.toUpperCase();
-        return asList(path, path.replaceAll("-", "_"), upperCasePath.replaceAll("-", "_"), upperCasePath.replaceAll("-", ""));
+        return asList(path, path.replace('-', '_'), upperCasePath.replace('-', '_'), remove(upperCasePath, '-'));
     }
 
     private Object getEnv(String path) {
@@ -143,4 +221,21 @@ public class TenantConfigExternalization implements PrivateConfigurationProcesso
         return envVariable.matches("-?\\d+(\\.\\d+)?");
     }
 
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("config.externalization.cache.hits", hits, AtomicLong::get)
+                       .description("Tenant configs externalization results reused for unchanged content")
+                       .register(registry);
+        FunctionCounter.builder("config.externalization.cache.misses", misses, AtomicLong::get)
+                       .description("Tenant configs parsed and externalized")
+                       .register(registry);
+    }
+
+    @Value
+    private static class ProcessedEntry {
+        private String contentHash;
+        /** externalized content, null if config is not changed by environment */
+        private String content;
+    }
+
 }
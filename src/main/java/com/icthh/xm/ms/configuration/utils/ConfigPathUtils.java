@@ -52,6 +52,13 @@ public final class ConfigPathUtils {
         return getTenantPathPrefix(targetTenant) + path.substring(getTenantPathPrefix(sourceTenant).length());
     }
 
+    /**
+     * Check if configuration is yml or json document, that can be parsed to a tree.
+     */
+    public static boolean isStructuredConfiguration(String path) {
+        return path.endsWith(".yml") || path.endsWith(".yaml") || path.endsWith(".json");
+    }
+
     public static boolean isUnderTenantFolder(String path) {
         return matcher.match(PATTERN, path);
     }
@@ -0,0 +1,43 @@
+package com.icthh.xm.ms.configuration.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.experimental.UtilityClass;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * JSON Merge Patch, see RFC 7396.
+ */
+@UtilityClass
+public final class JsonMergePatchUtils {
+
+    /**
+     * Apply merge patch to target. Target is not modified.
+     *
+     * @param target document to patch, can be null
+     * @param patch  merge patch, null values remove fields
+     * @return patched document
+     */
+    public static JsonNode mergePatch(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch.deepCopy();
+        }
+        ObjectNode result = target != null && target.isObject()
+                            ? ((ObjectNode) target).deepCopy()
+                            : JsonNodeFactory.instance.objectNode();
+
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                result.set(field.getKey(), mergePatch(result.get(field.getKey()), field.getValue()));
+            }
+        }
+        return result;
+    }
+}
@@ -14,6 +14,8 @@ import java.util.Optional;
 public class RequestContextUtils {
 
     public static final String OLD_CONFIG_HASH = "oldConfigHash";
+    /** oldConfigHash that matches any existing version of configuration, e.g. from If-Match: * */
+    public static final String ANY_CONFIG_HASH = "*";
 
     public static Optional<RequestSourceType> getRequestSourceType(XmRequestContextHolder holder) {
         RequestSourceType value = holder.getContext().getValue(RequestContextKeys.REQUEST_SOURCE_TYPE,
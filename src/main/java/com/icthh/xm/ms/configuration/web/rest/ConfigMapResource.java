@@ -1,28 +1,56 @@
 package com.icthh.xm.ms.configuration.web.rest;
 
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
 import static com.icthh.xm.ms.configuration.config.Constants.API_PREFIX;
 import static com.icthh.xm.ms.configuration.config.Constants.PRIVATE;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.OLD_CONFIG_HASH;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.acceptsEncoding;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.isNotModified;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.toConfigHash;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.toETag;
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.HttpHeaders.VARY;
 import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.logging.LoggingAspectConfig;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
 import com.icthh.xm.ms.configuration.service.ConcurrentConfigModificationException;
+import com.icthh.xm.ms.configuration.service.ConfigMapSnapshotCache;
 import com.icthh.xm.ms.configuration.service.ConfigurationService;
 import com.icthh.xm.ms.configuration.utils.ConfigPathUtils;
 import lombok.Data;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -32,14 +60,90 @@ import java.util.Map;
 @RequestMapping(API_PREFIX + PRIVATE)
 public class ConfigMapResource {
 
+    private static final int JSON_OBJECT_START = '{';
+    private static final int JSON_OBJECT_END = '}';
+    private static final int JSON_FIELD_SEPARATOR = ',';
+
+    private static final String GZIP = "gzip";
+    static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    static final String APPLICATION_CBOR_VALUE = "application/cbor";
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+    private static final MediaType CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR_VALUE);
+
     private final ConfigurationService configurationService;
+    private final ConfigMapSnapshotCache snapshotCache;
 
+    /**
+     * Write config map as json object from configurations serialized in memory storage,
+     * without building and buffering the whole response. Current config map is sent from the
+     * shared gzip snapshot to clients that accept gzip. Clients that explicitly accept Smile or CBOR
+     * get the config map in this binary format.
+     */
     @GetMapping("/config_map")
     @Timed
     @LoggingAspectConfig(resultDetails = false)
-    public ResponseEntity<Map<String, Configuration>> getAllConfigurations(
-        @RequestParam(name = "version", required = false) String version) {
-        return ResponseEntity.ok(configurationService.getConfigurationMap(version));
+    public void getAllConfigurations(@RequestParam(name = "version", required = false) String version,
+                                     @RequestHeader(name = IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                     @RequestHeader(name = ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                     @RequestHeader(name = ACCEPT, required = false) String accept,
+                                     HttpServletResponse response) throws IOException {
+        ConfigMapFormat format = ConfigMapFormat.of(accept);
+        // read map version before the map, so the client can only get an outdated ETag, never an outdated map
+        String mapVersion = configurationService.getConfigurationMapVersion();
+        String eTag = mapVersion == null ? null : mapVersion + format.getETagSuffix();
+        if (eTag != null) {
+            response.setHeader(ETAG, toETag(eTag));
+        }
+        boolean current = isBlank(version) || version.equals(configurationService.getVersion());
+        if (current && isNotModified(ifNoneMatch, eTag)) {
+            response.setStatus(NOT_MODIFIED.value());
+            return;
+        }
+
+        response.setContentType(format.getContentType());
+        response.setHeader(VARY, ACCEPT + ", " + ACCEPT_ENCODING);
+        if (format.getMapper() != null) {
+            OutputStream out = response.getOutputStream();
+            format.getMapper().writeValue(out, configurationService.getConfigurationMap(version));
+            out.flush();
+            return;
+        }
+        if (current && mapVersion != null && snapshotCache.isEnabled() && acceptsEncoding(acceptEncoding, GZIP)) {
+            byte[] snapshot = snapshotCache.getGzipSnapshot(mapVersion, out -> writeConfigMap(null, out));
+            response.setHeader(CONTENT_ENCODING, GZIP);
+            response.setContentLength(snapshot.length);
+            response.getOutputStream().write(snapshot);
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        writeConfigMap(version, out);
+        out.flush();
+    }
+
+    @SneakyThrows
+    private void writeConfigMap(String version, OutputStream out) {
+        writeJsonObject(configurationService.getSerializedConfigurationMap(version), out);
+    }
+
+    private static void writeJsonObject(List<byte[]> fields, OutputStream out) throws IOException {
+        out.write(JSON_OBJECT_START);
+        boolean first = true;
+        for (byte[] field : fields) {
+            if (!first) {
+                out.write(JSON_FIELD_SEPARATOR);
+            }
+            out.write(field);
+            first = false;
+        }
+        out.write(JSON_OBJECT_END);
+    }
+
+    @GetMapping("/config_map/changes")
+    @Timed
+    @LoggingAspectConfig(resultDetails = false)
+    public ResponseEntity<ConfigurationChanges> getConfigurationChanges(@RequestParam(name = "since") String since) {
+        return ResponseEntity.ok(configurationService.getConfigurationChanges(since));
     }
 
     @PostMapping("/config_map")
@@ -52,9 +156,10 @@ public class ConfigMapResource {
     @PutMapping(value = "/config")
     @Timed
     public ResponseEntity<Void> updateConfiguration(@RequestBody Configuration configuration,
-                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash) {
+                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash,
+                                                    @RequestHeader(name = IF_MATCH, required = false) String ifMatch) {
         try {
-            configurationService.updateConfiguration(configuration, oldConfigHash);
+            configurationService.updateConfiguration(configuration, defaultIfBlank(oldConfigHash, toConfigHash(ifMatch)));
         } catch (ConcurrentConfigModificationException e) {
             log.warn("Error update configuration", e);
             return ResponseEntity.status(CONFLICT).build();
@@ -62,6 +167,47 @@ public class ConfigMapResource {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Config map encodings. Binary formats are used only if the client accepts them explicitly,
+     * json stays the default for wildcard and missing Accept header.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    enum ConfigMapFormat {
+
+        JSON(APPLICATION_JSON_UTF8_VALUE, "", null),
+        // servlet stream is closed by container, closing it in mapper breaks the flush after write
+        SMILE(APPLICATION_SMILE_VALUE, "-smile", new ObjectMapper(new SmileFactory()).disable(AUTO_CLOSE_TARGET)),
+        CBOR(APPLICATION_CBOR_VALUE, "-cbor", new ObjectMapper(new CBORFactory()).disable(AUTO_CLOSE_TARGET));
+
+        private final String contentType;
+        private final String eTagSuffix;
+        private final ObjectMapper mapper;
+
+        static ConfigMapFormat of(String accept) {
+            if (isBlank(accept)) {
+                return JSON;
+            }
+            List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(mediaTypes);
+            for (MediaType mediaType : mediaTypes) {
+                if (mediaType.getQualityValue() == 0) {
+                    continue;
+                }
+                if (SMILE_TYPE.equalsTypeAndSubtype(mediaType)) {
+                    return SMILE;
+                }
+                if (CBOR_TYPE.equalsTypeAndSubtype(mediaType)) {
+                    return CBOR;
+                }
+                if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    return JSON;
+                }
+            }
+            return JSON;
+        }
+    }
+
     @Data
     private static class GetConfigRequest {
         private List<String> paths;
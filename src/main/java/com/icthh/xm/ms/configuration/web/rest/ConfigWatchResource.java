@@ -0,0 +1,53 @@
+package com.icthh.xm.ms.configuration.web.rest;
+
+import static com.icthh.xm.ms.configuration.config.Constants.API_PREFIX;
+import static com.icthh.xm.ms.configuration.config.Constants.PRIVATE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
+
+import com.codahale.metrics.annotation.Timed;
+import com.icthh.xm.commons.logging.LoggingAspectConfig;
+import com.icthh.xm.ms.configuration.domain.ConfigurationWatchEvent;
+import com.icthh.xm.ms.configuration.service.ConfigWatchService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+/**
+ * Watch configuration changes without Kafka. Requests are held asynchronously, without a servlet thread.
+ */
+@RequiredArgsConstructor
+@RestController
+@RequestMapping(API_PREFIX + PRIVATE)
+public class ConfigWatchResource {
+
+    private final ConfigWatchService configWatchService;
+
+    /**
+     * Long-poll for changes of paths after version. Returns 304 if nothing was changed until timeout.
+     */
+    @GetMapping("/config_map/watch")
+    @Timed
+    @LoggingAspectConfig(resultDetails = false)
+    public DeferredResult<ResponseEntity<ConfigurationWatchEvent>> watch(
+        @RequestParam(name = "since", required = false) String since,
+        @RequestParam(name = "paths", required = false) List<String> paths) {
+        return configWatchService.watch(since, paths);
+    }
+
+    /**
+     * Server-sent events stream of changes of paths, starting from changes after version.
+     */
+    @GetMapping(value = "/config_map/watch/stream", produces = TEXT_EVENT_STREAM_VALUE)
+    @LoggingAspectConfig(resultDetails = false)
+    public SseEmitter stream(@RequestParam(name = "since", required = false) String since,
+                             @RequestParam(name = "paths", required = false) List<String> paths) {
+        return configWatchService.stream(since, paths);
+    }
+}
@@ -1,25 +1,47 @@
 package com.icthh.xm.ms.configuration.web.rest;
 
-import static com.fasterxml.jackson.databind.type.TypeFactory.defaultInstance;
 import static com.icthh.xm.ms.configuration.config.Constants.*;
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.ADMIN_API;
+import static com.icthh.xm.ms.configuration.utils.ConfigPathUtils.isStructuredConfiguration;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.OLD_CONFIG_HASH;
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.JSON_ETAG_SUFFIX;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.POINTER_ETAG_SUFFIX;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.createETag;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.isNotModified;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.toConfigHash;
+import static com.icthh.xm.ms.configuration.web.rest.util.PaginationUtil.generatePaginationHttpHeaders;
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 import static org.springframework.http.MediaType.*;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.MapType;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.exceptions.EntityNotFoundException;
 import com.icthh.xm.commons.permission.annotation.PrivilegeDescription;
 import com.icthh.xm.commons.logging.LoggingAspectConfig;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
+import com.icthh.xm.ms.configuration.domain.ConfigurationList;
+import com.icthh.xm.ms.configuration.domain.ConfigurationUploadProgress;
 import com.icthh.xm.ms.configuration.service.ConcurrentConfigModificationException;
 import com.icthh.xm.ms.configuration.service.ConfigurationService;
+import com.icthh.xm.ms.configuration.service.ConfigurationTreeCache;
+import com.icthh.xm.ms.configuration.service.YmlToJsonConversionCache;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PostAuthorize;
@@ -29,12 +51,13 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.util.UrlPathHelper;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @RestController
@@ -42,22 +65,75 @@ import java.util.Optional;
 @RequestMapping(API_PREFIX)
 public class ConfigurationAdminResource {
 
+    static final String POINTER = "pointer";
+    private static final MediaType NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
     private final UrlPathHelper urlHelper = new UrlPathHelper();
     private final ObjectMapper jsonMapper = new ObjectMapper();
-    private final ObjectMapper ymlmapper = new ObjectMapper(new YAMLFactory());
 
     private final ConfigurationService configurationService;
+    private final YmlToJsonConversionCache ymlToJsonCache;
+    private final ConfigurationTreeCache treeCache;
 
+    /**
+     * Upload configurations with one commit per batch. Upload is not atomic: if a batch fails,
+     * the previous batches stay committed. With {@code Accept: application/x-ndjson} a progress line
+     * is written after each committed batch. As the status is sent with the first line, a failure of
+     * a later batch is reported by the last line with error and the number of the failed batch.
+     */
     @PostMapping(value = CONFIG, consumes = MULTIPART_FORM_DATA_VALUE)
     @Timed
     @SneakyThrows
     @PreAuthorize("hasPermission({'files': #files, 'tenant': #tenant}, 'CONFIG.ADMIN.CREATE.LIST')")
     @PrivilegeDescription("Privilege to create list of configurations for admin")
-    public ResponseEntity<Void> createConfigurations(@RequestParam(value = "files") List<MultipartFile> files) {
+    public ResponseEntity<Void> createConfigurations(@RequestParam(value = "files") List<MultipartFile> files,
+                                                     @RequestHeader(name = ACCEPT, required = false) String accept,
+                                                     HttpServletResponse response) {
+        if (acceptsNdjson(accept)) {
+            response.setContentType(APPLICATION_NDJSON_VALUE);
+            OutputStream outputStream = response.getOutputStream();
+            AtomicReference<ConfigurationUploadProgress> committed = new AtomicReference<>();
+            try {
+                configurationService.createConfigurations(files, progress -> {
+                    committed.set(progress);
+                    writeProgress(outputStream, progress);
+                });
+            } catch (RuntimeException e) {
+                if (committed.get() == null) {
+                    // nothing is written yet, so the error is reported by status
+                    throw e;
+                }
+                log.error("Error upload configurations after {} committed batches", committed.get().getBatch(), e);
+                writeProgress(outputStream, committed.get().failed(e.getMessage()));
+            }
+            // response is already written
+            return null;
+        }
         configurationService.createConfigurations(files);
         return ResponseEntity.ok().build();
     }
 
+    private static boolean acceptsNdjson(String accept) {
+        if (isBlank(accept)) {
+            return false;
+        }
+        try {
+            // wildcards are not enough, ndjson is sent only if requested explicitly
+            return MediaType.parseMediaTypes(accept).stream()
+                            .anyMatch(mediaType -> !mediaType.isWildcardType() && !mediaType.isWildcardSubtype()
+                                                   && mediaType.getQualityValue() > 0
+                                                   && mediaType.isCompatibleWith(NDJSON));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    @SneakyThrows
+    private void writeProgress(OutputStream outputStream, ConfigurationUploadProgress progress) {
+        outputStream.write(jsonMapper.writeValueAsBytes(progress));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
     @PostMapping(value = INMEMORY + CONFIG, consumes = MULTIPART_FORM_DATA_VALUE)
     @Timed
     @SneakyThrows
@@ -87,10 +163,11 @@ public class ConfigurationAdminResource {
     @PrivilegeDescription("Privilege to update configuration for admin")
     public ResponseEntity<Void> updateConfiguration(@RequestBody String content,
                                                     HttpServletRequest request,
-                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash) {
+                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash,
+                                                    @RequestHeader(name = IF_MATCH, required = false) String ifMatch) {
         Configuration configuration = new Configuration(extractPath(request), content);
         try {
-            configurationService.updateConfiguration(configuration, oldConfigHash);
+            configurationService.updateConfiguration(configuration, defaultIfBlank(oldConfigHash, toConfigHash(ifMatch)));
         } catch (ConcurrentConfigModificationException e) {
             log.warn("Error update configuration", e);
             return ResponseEntity.status(CONFLICT).build();
@@ -98,6 +175,31 @@ public class ConfigurationAdminResource {
         return ResponseEntity.ok().build();
     }
 
+    @LoggingAspectConfig(inputExcludeParams = {"patch"})
+    @PatchMapping(value = CONFIG + TENANTS + "/{tenant}/**", consumes = {MERGE_PATCH_JSON_VALUE, APPLICATION_JSON_VALUE})
+    @Timed
+    @PreAuthorize("hasPermission({'content': #patch, 'request': #request}, 'CONFIG.ADMIN.UPDATE')")
+    @PrivilegeDescription("Privilege to update configuration for admin")
+    public ResponseEntity<Void> patchConfiguration(@RequestBody String patch,
+                                                   HttpServletRequest request,
+                                                   @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash,
+                                                   @RequestHeader(name = IF_MATCH, required = false) String ifMatch) {
+        String path = extractPath(request);
+        if (!isStructuredConfiguration(path)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            configurationService.patchConfiguration(path, patch, defaultIfBlank(oldConfigHash, toConfigHash(ifMatch)));
+        } catch (ConcurrentConfigModificationException e) {
+            log.warn("Error patch configuration", e);
+            return ResponseEntity.status(CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            log.warn("Error patch configuration {}: {}", path, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
 
     @LoggingAspectConfig(inputExcludeParams = {"content"})
     @PutMapping(value = INMEMORY + CONFIG + TENANTS + "/{tenant}/**", consumes = {TEXT_PLAIN_VALUE, APPLICATION_JSON_VALUE})
@@ -121,6 +223,139 @@ public class ConfigurationAdminResource {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Download tenant configurations as zip archive. Responds with 404 if the tenant has no configurations
+     * in the version.
+     */
+    @GetMapping(value = CONFIG + TENANTS + "/{tenant}" + EXPORT, produces = APPLICATION_ZIP_VALUE)
+    @Timed
+    @SneakyThrows
+    @PreAuthorize("hasPermission({'tenant': #tenant, 'version': #version}, 'CONFIG.ADMIN.EXPORT')")
+    @PrivilegeDescription("Privilege to export tenant configurations as zip archive for admin")
+    public void exportTenantConfigurations(@PathVariable String tenant,
+                                           @RequestParam(name = "version", required = false) String version,
+                                           HttpServletResponse response) {
+        response.setContentType(APPLICATION_ZIP_VALUE);
+        response.setHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + tenant + ".zip\"");
+        try {
+            configurationService.exportTenantConfigurations(tenant, version, response.getOutputStream());
+        } catch (IllegalArgumentException e) {
+            // thrown before the first entry is written, so the response is not committed yet
+            log.warn("Error export configurations of tenant {}: {}", tenant, e.getMessage());
+            response.reset();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Import zip archive into the tenant folder with one commit. The archive is merged into the folder:
+     * files from the archive are added or overwritten, files absent in the archive are not deleted.
+     * To replace the folder, delete the absent files separately.
+     */
+    @PostMapping(value = CONFIG + TENANTS + "/{tenant}" + IMPORT, consumes = APPLICATION_ZIP_VALUE)
+    @Timed
+    @SneakyThrows
+    @PreAuthorize("hasPermission({'tenant': #tenant, 'request': #request}, 'CONFIG.ADMIN.IMPORT')")
+    @PrivilegeDescription("Privilege to import tenant configurations from zip archive for admin")
+    public ResponseEntity<Void> importTenantConfigurations(@PathVariable String tenant,
+                                                           HttpServletRequest request) {
+        try {
+            ConfigurationList imported =
+                configurationService.importTenantConfigurations(tenant, request.getInputStream());
+            log.info("Imported {} configurations of tenant {}", imported.getData().size(), tenant);
+        } catch (IllegalArgumentException e) {
+            log.warn("Error import configurations of tenant {}: {}", tenant, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping(value = CONFIG + TENANTS + "/{tenant}" + CLONE)
+    @Timed
+    @PreAuthorize("hasPermission({'tenant': #tenant, 'template': #template}, 'CONFIG.ADMIN.CLONE')")
+    @PrivilegeDescription("Privilege to create tenant configurations as a copy of template tenant for admin")
+    public ResponseEntity<Void> cloneTenantConfigurations(@PathVariable String tenant,
+                                                          @RequestParam(name = "template") String template) {
+        try {
+            configurationService.cloneTenantConfigurations(template, tenant);
+        } catch (IllegalArgumentException e) {
+            log.warn("Error clone configurations of tenant {} to {}: {}", template, tenant, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    @GetMapping(value = CONFIG + HISTORY + "/**")
+    @Timed
+    @PreAuthorize("hasPermission({'request': #request}, 'CONFIG.ADMIN.GET_HISTORY')")
+    @PrivilegeDescription("Privilege to get history of configuration for admin")
+    public ResponseEntity<List<ConfigurationCommit>> getConfigurationHistory(
+        HttpServletRequest request,
+        @RequestParam(name = "page", defaultValue = "0") int page,
+        @RequestParam(name = "size", defaultValue = "20") int size) {
+        String path = extractPath(request).substring(CONFIG.length() + HISTORY.length());
+        if (isBlank(path) || page < 0 || size < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        Page<ConfigurationCommit> history = configurationService.findConfigurationHistory(path, PageRequest.of(page, size));
+        return ResponseEntity.ok()
+                             .headers(generatePaginationHttpHeaders(history, API_PREFIX + CONFIG + HISTORY + path))
+                             .body(history.getContent());
+    }
+
+    @GetMapping(value = CONFIG + DIFF + "/**", produces = TEXT_PLAIN_VALUE)
+    @Timed
+    @LoggingAspectConfig(resultDetails = false)
+    @PreAuthorize("hasPermission({'request': #request}, 'CONFIG.ADMIN.GET_DIFF')")
+    @PrivilegeDescription("Privilege to get diff of configurations between versions for admin")
+    public ResponseEntity<String> getConfigurationDiff(HttpServletRequest request,
+                                                       @RequestParam(name = "from") String from,
+                                                       @RequestParam(name = "to", required = false) String to) {
+        String path = extractPath(request).substring(CONFIG.length() + DIFF.length());
+        try {
+            return ResponseEntity.ok(configurationService.getConfigurationDiff(from, to, path));
+        } catch (IllegalArgumentException e) {
+            log.warn("Error get diff of {}: {}", path, e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping(value = CONFIG + DIFF + "/**", params = "pathsOnly")
+    @Timed
+    @LoggingAspectConfig(resultDetails = false)
+    @PreAuthorize("hasPermission({'request': #request}, 'CONFIG.ADMIN.GET_DIFF')")
+    @PrivilegeDescription("Privilege to get diff of configurations between versions for admin")
+    public ResponseEntity<List<ConfigurationDiff>> getConfigurationChanges(HttpServletRequest request,
+                                                                           @RequestParam(name = "from") String from,
+                                                                           @RequestParam(name = "to", required = false) String to) {
+        String path = extractPath(request).substring(CONFIG.length() + DIFF.length());
+        try {
+            return ResponseEntity.ok(configurationService.findConfigurationChanges(from, to, path));
+        } catch (IllegalArgumentException e) {
+            log.warn("Error get changes of {}: {}", path, e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping(value = CONFIG + ROLLBACK + "/**")
+    @Timed
+    @PreAuthorize("hasPermission({'request': #request, 'version': #version}, 'CONFIG.ADMIN.ROLLBACK')")
+    @PrivilegeDescription("Privilege to rollback configurations to previous version for admin")
+    public ResponseEntity<Void> rollbackConfigurations(HttpServletRequest request,
+                                                       @RequestParam(name = "version") String version) {
+        String path = extractPath(request).substring(CONFIG.length() + ROLLBACK.length());
+        if (isBlank(path)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            configurationService.rollbackConfigurations(path, version);
+        } catch (IllegalArgumentException e) {
+            log.warn("Error rollback {} to version {}: {}", path, version, e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
     @GetMapping(value = CONFIG + "/**")
     @Timed
     @LoggingAspectConfig(resultDetails = false)
@@ -129,7 +364,12 @@ public class ConfigurationAdminResource {
     public ResponseEntity<String> getConfiguration(HttpServletRequest request) {
         String path = extractPath(request);
         String version = request.getParameter("version");
-        return getConfiguration(request.getParameterMap().containsKey("toJson"), path, version);
+        String pointer = request.getParameter(POINTER);
+        if (pointer != null) {
+            return getConfigurationValue(path, version, pointer, request.getHeader(IF_NONE_MATCH));
+        }
+        return getConfiguration(request.getParameterMap().containsKey("toJson"), path, version,
+                                request.getHeader(IF_NONE_MATCH));
     }
 
     @GetMapping(value = "/version")
@@ -145,31 +385,81 @@ public class ConfigurationAdminResource {
     }
 
     protected ResponseEntity<String> getConfiguration(Boolean toJson, String path, String version) {
+        return getConfiguration(toJson, path, version, null);
+    }
+
+    protected ResponseEntity<String> getConfiguration(Boolean toJson, String path, String version, String ifNoneMatch) {
         Configuration maybeConfiguration = configurationService.findConfiguration(path, version).orElseThrow(
             () -> new EntityNotFoundException("Not found configuration.")
         );
-        return createResponse(toJson, path, maybeConfiguration);
+        return createResponse(toJson, path, maybeConfiguration, ifNoneMatch);
+    }
+
+    /**
+     * Get single value of yml or json configuration by JSON Pointer (RFC 6901), e.g. /a/b/0.
+     * The value is read from the cached parsed tree of the configuration.
+     */
+    @SneakyThrows
+    protected ResponseEntity<String> getConfigurationValue(String path, String version, String pointer,
+                                                           String ifNoneMatch) {
+        if (!isStructuredConfiguration(path) || !isValidPointer(pointer)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Configuration configuration = configurationService.findConfiguration(path, version).orElseThrow(
+            () -> new EntityNotFoundException("Not found configuration.")
+        );
+        String contentHash = configurationService.getConfigurationHash(configuration);
+        String hash = contentHash == null ? null : contentHash + POINTER_ETAG_SUFFIX;
+        if (isNotModified(ifNoneMatch, hash)) {
+            return ResponseEntity.status(NOT_MODIFIED).headers(createETag(hash)).build();
+        }
+
+        JsonNode value = treeCache.getTree(ADMIN_API, path, contentHash, configuration.getContent()).at(pointer);
+        if (value.isMissingNode()) {
+            throw new EntityNotFoundException("Not found configuration value.");
+        }
+        return ResponseEntity.ok()
+                             .headers(createETag(hash))
+                             .contentType(MediaType.APPLICATION_JSON_UTF8)
+                             .body(jsonMapper.writeValueAsString(value));
+    }
+
+    private static boolean isValidPointer(String pointer) {
+        try {
+            JsonPointer.compile(pointer);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
     protected ResponseEntity<String> createResponse(Boolean toJson, String path, Configuration maybeConfiguration) {
+        return createResponse(toJson, path, maybeConfiguration, null);
+    }
+
+    protected ResponseEntity<String> createResponse(Boolean toJson, String path, Configuration maybeConfiguration,
+                                                    String ifNoneMatch) {
+        boolean ymlToJson = path.endsWith(".yml") && toJson;
+        String hash = configurationService.getConfigurationHash(maybeConfiguration);
+        if (hash != null && ymlToJson) {
+            hash = hash + JSON_ETAG_SUFFIX;
+        }
+        if (isNotModified(ifNoneMatch, hash)) {
+            return ResponseEntity.status(NOT_MODIFIED).headers(createETag(hash)).build();
+        }
+
         String content = maybeConfiguration.getContent();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().headers(createETag(hash));
 
-        if (path.endsWith(".yml") && toJson) {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(convertToJson(content));
+        if (ymlToJson) {
+            return response.contentType(MediaType.APPLICATION_JSON_UTF8).body(ymlToJsonCache.toJson(path, hash, content));
         } else if (path.endsWith(".json")) {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(content);
+            return response.contentType(MediaType.APPLICATION_JSON_UTF8).body(content);
         } else {
-            return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(content);
+            return response.contentType(MediaType.TEXT_PLAIN).body(content);
         }
     }
 
-    @SneakyThrows
-    private String convertToJson(String yml) {
-        MapType type = defaultInstance().constructMapType(HashMap.class, String.class, Object.class);
-        Map<String, Object> properties = this.ymlmapper.readValue(yml, type);
-        return this.jsonMapper.writeValueAsString(properties);
-    }
-
     @DeleteMapping(CONFIG + TENANTS + "/{tenant}/**")
     @Timed
     @PreAuthorize("hasPermission({'request': #request}, 'CONFIG.ADMIN.DELETE')")
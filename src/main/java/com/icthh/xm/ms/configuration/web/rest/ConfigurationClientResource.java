@@ -23,8 +23,13 @@ import java.net.URI;
 
 import static com.icthh.xm.ms.configuration.config.Constants.*;
 import static com.icthh.xm.ms.configuration.utils.ConfigPathUtils.getTenantPathPrefix;
+import static com.icthh.xm.ms.configuration.utils.ConfigPathUtils.isStructuredConfiguration;
 import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.OLD_CONFIG_HASH;
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static com.icthh.xm.ms.configuration.web.rest.util.HeaderUtil.toConfigHash;
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.CONFLICT;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
@@ -61,10 +66,11 @@ public class ConfigurationClientResource {
     @PrivilegeDescription("Privilege to update config for client")
     public ResponseEntity<Void> updateConfiguration(@RequestBody String content,
                                                     HttpServletRequest request,
-                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash) {
+                                                    @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash,
+                                                    @RequestHeader(name = IF_MATCH, required = false) String ifMatch) {
         Configuration configuration = new Configuration(extractPath(request), content);
         try {
-            configurationService.updateConfiguration(configuration, oldConfigHash);
+            configurationService.updateConfiguration(configuration, defaultIfBlank(oldConfigHash, toConfigHash(ifMatch)));
         } catch (ConcurrentConfigModificationException e) {
             log.warn("Error update configuration", e);
             return ResponseEntity.status(CONFLICT).build();
@@ -72,6 +78,31 @@ public class ConfigurationClientResource {
         return ResponseEntity.ok().build();
     }
 
+    @LoggingAspectConfig(inputExcludeParams = {"patch"})
+    @PatchMapping(value = PROFILE + "/**", consumes = {MERGE_PATCH_JSON_VALUE, APPLICATION_JSON_VALUE})
+    @Timed
+    @PreAuthorize("hasPermission({'content': #patch, 'request': #request}, 'CONFIG.CLIENT.UPDATE')")
+    @PrivilegeDescription("Privilege to update config for client")
+    public ResponseEntity<Void> patchConfiguration(@RequestBody String patch,
+                                                   HttpServletRequest request,
+                                                   @RequestParam(name = OLD_CONFIG_HASH, required = false) String oldConfigHash,
+                                                   @RequestHeader(name = IF_MATCH, required = false) String ifMatch) {
+        String path = extractPath(request);
+        if (!isStructuredConfiguration(path)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            configurationService.patchConfiguration(path, patch, defaultIfBlank(oldConfigHash, toConfigHash(ifMatch)));
+        } catch (ConcurrentConfigModificationException e) {
+            log.warn("Error patch configuration", e);
+            return ResponseEntity.status(CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            log.warn("Error patch configuration {}: {}", path, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().build();
+    }
+
     @GetMapping(value = PROFILE + "/**")
     @Timed
     @LoggingAspectConfig(resultDetails = false)
@@ -79,7 +110,12 @@ public class ConfigurationClientResource {
     @PrivilegeDescription("Privilege to get config for client")
     public ResponseEntity<String> getConfiguration(HttpServletRequest request) {
         String path = extractPath(request);
-        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path);
+        String pointer = request.getParameter(ConfigurationAdminResource.POINTER);
+        if (pointer != null) {
+            return configurationAdminResource.getConfigurationValue(path, null, pointer, request.getHeader(IF_NONE_MATCH));
+        }
+        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path, null,
+                                                           request.getHeader(IF_NONE_MATCH));
     }
 
     @GetMapping(value = PROFILE + "/webapp/settings-private.yml")
@@ -92,7 +128,7 @@ public class ConfigurationClientResource {
         Configuration maybeConfiguration = configurationService.findConfiguration(path, null)
                                                                .orElse(new Configuration(path, EMPTY_YML));
         Boolean toJson = request.getParameterMap().containsKey("toJson");
-        return configurationAdminResource.createResponse(toJson, path, maybeConfiguration);
+        return configurationAdminResource.createResponse(toJson, path, maybeConfiguration, request.getHeader(IF_NONE_MATCH));
     }
 
     @GetMapping(value = PROFILE + "/webapp/settings-public.yml")
@@ -100,7 +136,8 @@ public class ConfigurationClientResource {
     @LoggingAspectConfig(inputDetails = false, resultDetails = false)
     public ResponseEntity<String> getWebAppConfiguration(HttpServletRequest request) {
         String path = extractPath(request);
-        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path);
+        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path, null,
+                                                           request.getHeader(IF_NONE_MATCH));
     }
 
     @GetMapping(value = PROFILE + "/webapp/public/**")
@@ -108,7 +145,8 @@ public class ConfigurationClientResource {
     @LoggingAspectConfig(inputDetails = false, resultDetails = false)
     public ResponseEntity<String> getPublicWebAppConfigurations(HttpServletRequest request) {
         String path = extractPath(request);
-        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path);
+        return configurationAdminResource.getConfiguration(request.getParameterMap().containsKey("toJson"), path, null,
+                                                           request.getHeader(IF_NONE_MATCH));
     }
 
     @DeleteMapping(PROFILE + "/**")
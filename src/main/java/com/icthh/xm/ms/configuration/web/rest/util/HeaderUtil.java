@@ -6,6 +6,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 
+import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.ANY_CONFIG_HASH;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
+import static org.apache.commons.lang3.StringUtils.removeStart;
+import static org.apache.commons.lang3.StringUtils.strip;
+
 /**
  * Utility class for HTTP headers creation.
  */
@@ -13,7 +19,14 @@ import org.springframework.http.HttpHeaders;
 @UtilityClass
 public final class HeaderUtil {
 
+    public static final String JSON_ETAG_SUFFIX = "-json";
+    public static final String POINTER_ETAG_SUFFIX = "-pointer";
+
     private static final String APPLICATION_NAME = "configurationApp";
+    private static final String WEAK_ETAG_PREFIX = "W/";
+    private static final String ANY_ETAG = "*";
+    private static final String ANY_ENCODING = "*";
+    private static final String QUALITY_PARAMETER = "q=";
 
     public static HttpHeaders createAlert(String message, String param) {
         HttpHeaders headers = new HttpHeaders();
@@ -41,4 +54,99 @@ public final class HeaderUtil {
         headers.add("X-" + APPLICATION_NAME + "-params", entityName);
         return headers;
     }
+
+    /**
+     * Create ETag header. ETag value is the same as oldConfigHash, so it can be used for optimistic update.
+     *
+     * @param hash content hash or version, header is not created if null
+     * @return headers
+     */
+    public static HttpHeaders createETag(String hash) {
+        HttpHeaders headers = new HttpHeaders();
+        if (hash != null) {
+            headers.setETag(toETag(hash));
+        }
+        return headers;
+    }
+
+    public static String toETag(String hash) {
+        return "\"" + hash + "\"";
+    }
+
+    /**
+     * Convert ETag (e.g. from If-Match header) to oldConfigHash. Suffixes of ETags of json and pointer
+     * representations are removed, {@code *} is converted to oldConfigHash that matches any existing version.
+     *
+     * @param eTag ETag value
+     * @return config hash or null
+     */
+    public static String toConfigHash(String eTag) {
+        if (isBlank(eTag)) {
+            return null;
+        }
+        String value = eTag.trim();
+        if (ANY_ETAG.equals(value)) {
+            return ANY_CONFIG_HASH;
+        }
+        return removeEnd(removeEnd(unquote(value), JSON_ETAG_SUFFIX), POINTER_ETAG_SUFFIX);
+    }
+
+    private static String unquote(String eTag) {
+        return strip(removeStart(eTag, WEAK_ETAG_PREFIX), "\"");
+    }
+
+    /**
+     * Check If-None-Match header value.
+     *
+     * @param ifNoneMatch If-None-Match header value
+     * @param hash        current content hash or version
+     * @return true if client already has current content
+     */
+    public static boolean isNotModified(String ifNoneMatch, String hash) {
+        if (isBlank(ifNoneMatch) || hash == null) {
+            return false;
+        }
+        for (String eTag : ifNoneMatch.split(",")) {
+            String value = eTag.trim();
+            if (ANY_ETAG.equals(value) || hash.equals(unquote(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if encoding is accepted by Accept-Encoding header value. Encodings with zero quality are not accepted.
+     *
+     * @param acceptEncoding Accept-Encoding header value
+     * @param encoding       content encoding, e.g. gzip
+     * @return true if client accepts encoding
+     */
+    public static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String value : acceptEncoding.split(",")) {
+            String[] parts = value.split(";");
+            String name = parts[0].trim();
+            if ((encoding.equalsIgnoreCase(name) || ANY_ENCODING.equals(name)) && !isZeroQuality(parts)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith(QUALITY_PARAMETER)) {
+                try {
+                    return Double.parseDouble(parameter.substring(QUALITY_PARAMETER.length())) == 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
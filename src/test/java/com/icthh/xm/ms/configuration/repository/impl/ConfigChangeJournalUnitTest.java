@@ -0,0 +1,71 @@
+package com.icthh.xm.ms.configuration.repository.impl;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal.Changes;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigChangeJournalUnitTest {
+
+    private ConfigChangeJournal journal;
+
+    @Before
+    public void before() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getConfigMap().setChangesJournalSize(2);
+        journal = new ConfigChangeJournal(applicationProperties);
+        journal.reset("commit0", "commit0-0");
+    }
+
+    @Test
+    public void includeInMemoryChangesUnderKnownCommit() {
+        journal.record("commit1", "commit1-1", singleton("/a"));
+        journal.record("commit1", "commit1-2", singleton("/b"));
+
+        assertThat(journal.getChangesSince("commit0").get().getPaths()).containsOnly("/a", "/b");
+        assertThat(journal.getChangesSince("commit1").get().getPaths()).containsOnly("/b");
+    }
+
+    @Test
+    public void includeInMemoryChangesAfterCommitEntryEvicted() {
+        journal.record("commit1", "commit1-1", singleton("/a"));
+        journal.record("commit1", "commit1-2", singleton("/b"));
+        journal.record("commit1", "commit1-3", singleton("/c"));
+
+        assertThat(journal.getChangesSince("commit1").get().getPaths()).containsOnly("/b", "/c");
+        assertThat(journal.getChangesSince("commit0")).isEmpty();
+    }
+
+    @Test
+    public void unknownWhenInMemoryChangesEvicted() {
+        journal.record("commit1", "commit1-1", singleton("/a"));
+        journal.record("commit1", "commit1-2", singleton("/b"));
+        journal.record("commit2", "commit2-3", singleton("/c"));
+        journal.record("commit3", "commit3-4", singleton("/d"));
+
+        assertThat(journal.getChangesSince("commit1")).isEmpty();
+        assertThat(journal.getChangesSince("commit2").get().getPaths()).containsOnly("/d");
+    }
+
+    @Test
+    public void returnedVersionResolvesToExactInMemoryChange() {
+        journal.record("commit0", "commit0-1", singleton("/a"));
+
+        Changes changes = journal.getChangesSince("commit0").get();
+        assertThat(changes.getVersion()).isEqualTo("commit0-1");
+        assertThat(changes.getPaths()).containsOnly("/a");
+
+        changes = journal.getChangesSince(changes.getVersion()).get();
+        assertThat(changes.getVersion()).isEqualTo("commit0-1");
+        assertThat(changes.getPaths()).isEmpty();
+
+        journal.record("commit0", "commit0-2", singleton("/b"));
+        journal.record("commit0", "commit0-3", singleton("/c"));
+        assertThat(journal.getChangesSince("commit0-1").get().getPaths()).containsOnly("/b", "/c");
+        assertThat(journal.getChangesSince("commit0-2").get().getPaths()).containsOnly("/c");
+        assertThat(journal.getChangesSince("commit0-0")).isEmpty();
+    }
+}
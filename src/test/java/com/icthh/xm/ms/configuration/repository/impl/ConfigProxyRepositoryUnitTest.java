@@ -1,27 +1,46 @@
 package com.icthh.xm.ms.configuration.repository.impl;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
 import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
 import com.icthh.xm.ms.configuration.domain.ConfigurationList;
 import com.icthh.xm.ms.configuration.domain.TenantAliasTree;
 import com.icthh.xm.ms.configuration.repository.PersistenceConfigRepository;
 import com.icthh.xm.ms.configuration.repository.kafka.ConfigTopicProducer;
 import com.icthh.xm.ms.configuration.service.TenantAliasService;
+import lombok.SneakyThrows;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigProxyRepositoryUnitTest {
@@ -33,11 +52,14 @@ public class ConfigProxyRepositoryUnitTest {
     private ConfigTopicProducer configTopicProducer;
     @Mock
     private TenantAliasService tenantAliasService;
+    private ConfigChangeJournal changeJournal;
 
     @Before
     public void before() {
         MemoryConfigStorage memoryConfigStorage = new MemoryConfigStorage(emptyList(), emptyList(), tenantAliasService);
-        configProxyRepository = new ConfigProxyRepository(memoryConfigStorage, persistenceConfigRepository, configTopicProducer);
+        changeJournal = spy(new ConfigChangeJournal(new ApplicationProperties()));
+        configProxyRepository = new ConfigProxyRepository(memoryConfigStorage, persistenceConfigRepository,
+                                                          configTopicProducer, changeJournal);
     }
 
     @Test
@@ -86,6 +108,124 @@ public class ConfigProxyRepositoryUnitTest {
         verifyZeroInteractions(configTopicProducer);
     }
 
+    @Test
+    public void getMapByPathsAndPatterns() {
+        Configuration configuration1 = new Configuration("/config/tenants/XM/entity/specs/a.yml", "content1");
+        Configuration configuration2 = new Configuration("/config/tenants/DEMO/entity/specs/b.yml", "content2");
+        Configuration configuration3 = new Configuration("/config/tenants/XM/uaa/uaa.yml", "content3");
+        Configuration configuration4 = new Configuration("/config/tenants/tenant-config.yml", "content4");
+        asList(configuration1, configuration2, configuration3, configuration4)
+            .forEach(config -> configProxyRepository.getStorage().updateConfig(config.getPath(), config));
+        configProxyRepository.getVersion().set("commit1");
+
+        Map<String, Configuration> result = configProxyRepository.getMap(null, asList(
+            "/config/tenants/*/entity/**", "/config/tenants/tenant-config.yml", "/config/tenants/unknown.yml"));
+
+        assertThat(result).containsOnlyKeys(configuration1.getPath(), configuration2.getPath(),
+                                            configuration4.getPath(), "/config/tenants/unknown.yml");
+        assertThat(result.get(configuration1.getPath())).isSameAs(configuration1);
+        assertThat(result.get("/config/tenants/unknown.yml")).isNull();
+
+        configProxyRepository.getStorage().removeConfig(configuration1.getPath());
+        assertThat(configProxyRepository.getMap(null, singletonList("/config/tenants/XM/**")))
+            .containsOnlyKeys(configuration3.getPath());
+        verifyZeroInteractions(persistenceConfigRepository, configTopicProducer);
+    }
+
+    @Test
+    @SneakyThrows
+    public void getSerializedMap() {
+        Configuration configuration1 = new Configuration("path1", "content \"1\"");
+        configProxyRepository.getStorage().updateConfig("path1", configuration1);
+        configProxyRepository.getVersion().set("commit1");
+
+        List<byte[]> result = configProxyRepository.getSerializedMap(null);
+
+        assertThat(result).hasSize(1);
+        JsonNode json = new ObjectMapper().readTree("{" + new String(result.get(0), UTF_8) + "}");
+        assertThat(json.path("path1").path("path").asText()).isEqualTo("path1");
+        assertThat(json.path("path1").path("content").asText()).isEqualTo("content \"1\"");
+        assertThat(configProxyRepository.getSerializedMap(null).get(0)).isSameAs(result.get(0));
+        verifyZeroInteractions(persistenceConfigRepository, configTopicProducer);
+    }
+
+    @Test
+    public void getChanges() {
+        Configuration configuration1 = new Configuration("path1", "content1");
+        Configuration configuration2 = new Configuration("path2", "content2");
+        when(persistenceConfigRepository.findAll()).thenReturn(new ConfigurationList("commit1", singletonList(configuration1)));
+        when(persistenceConfigRepository.save(configuration2, null)).thenReturn("commit2");
+        when(persistenceConfigRepository.delete("path1")).thenReturn("commit3");
+        configProxyRepository.refreshInternal();
+
+        configProxyRepository.save(configuration2);
+        configProxyRepository.delete("path1");
+
+        ConfigurationChanges result = configProxyRepository.getChanges("commit1");
+        assertThat(result.getVersion()).isEqualTo(configProxyRepository.getMapVersion()).startsWith("commit3-");
+        assertThat(result.isSnapshot()).isFalse();
+        assertThat(result.getConfigurations()).containsOnlyKeys("path2");
+        assertThat(result.getDeletedPaths()).containsExactly("path1");
+
+        result = configProxyRepository.getChanges("commit2");
+        assertThat(result.getConfigurations()).isEmpty();
+        assertThat(result.getDeletedPaths()).containsExactly("path1");
+
+        result = configProxyRepository.getChanges("commit3");
+        assertThat(result.getConfigurations()).isEmpty();
+        assertThat(result.getDeletedPaths()).isEmpty();
+        result = configProxyRepository.getChanges(configProxyRepository.getMapVersion());
+        assertThat(result.isSnapshot()).isFalse();
+        assertThat(result.getConfigurations()).isEmpty();
+        assertThat(result.getDeletedPaths()).isEmpty();
+    }
+
+    @Test
+    @SneakyThrows
+    public void getChangesWaitsForChangeBeingRecorded() {
+        Configuration configuration1 = new Configuration("path1", "content1");
+        Configuration configuration2 = new Configuration("path2", "content2");
+        when(persistenceConfigRepository.findAll()).thenReturn(new ConfigurationList("commit1", singletonList(configuration1)));
+        when(persistenceConfigRepository.save(configuration2, null)).thenReturn("commit2");
+        configProxyRepository.refreshInternal();
+
+        CountDownLatch recording = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            recording.countDown();
+            proceed.await();
+            return invocation.callRealMethod();
+        }).when(changeJournal).record(eq("commit2"), anyString(), anyCollection());
+
+        CompletableFuture<String> save = CompletableFuture.supplyAsync(() -> configProxyRepository.save(configuration2));
+        recording.await();
+        CompletableFuture<ConfigurationChanges> changes =
+            CompletableFuture.supplyAsync(() -> configProxyRepository.getChanges("commit1"));
+        Thread.sleep(100);
+        assertThat(changes.isDone()).isFalse();
+        proceed.countDown();
+
+        assertThat(save.get(5, SECONDS)).isEqualTo("commit2");
+        ConfigurationChanges result = changes.get(5, SECONDS);
+        assertThat(result.getVersion()).isEqualTo(configProxyRepository.getMapVersion()).startsWith("commit2-");
+        assertThat(result.getConfigurations()).containsOnlyKeys("path2");
+        assertThat(configProxyRepository.getChanges(result.getVersion()).getConfigurations()).isEmpty();
+    }
+
+    @Test
+    public void getChangesForUnknownCommit() {
+        Configuration configuration1 = new Configuration("path1", "content1");
+        configProxyRepository.getStorage().updateConfig("path1", configuration1);
+        configProxyRepository.getVersion().set("commit1");
+
+        ConfigurationChanges result = configProxyRepository.getChanges("commit0");
+
+        assertThat(result.getVersion()).isEqualTo(configProxyRepository.getMapVersion()).startsWith("commit1-");
+        assertThat(result.isSnapshot()).isTrue();
+        assertThat(result.getConfigurations()).containsOnlyKeys("path1");
+        assertThat(result.getDeletedPaths()).isEmpty();
+    }
+
     @Test
     public void findAll() {
         Configuration configuration1 = new Configuration("path1", "content1");
@@ -148,6 +288,57 @@ public class ConfigProxyRepositoryUnitTest {
         verify(configTopicProducer).notifyConfigurationChanged("commit1", singletonList("path1"));
     }
 
+    @Test
+    public void saveAllFromStreams() {
+        Map<String, InputStreamSource> sources = singletonMap("path1", new ByteArrayResource("content1".getBytes(UTF_8)));
+        when(persistenceConfigRepository.saveAll(sources)).thenReturn("commit1");
+
+        String result = configProxyRepository.saveAll(sources);
+
+        assertThat(result).isEqualTo("commit1");
+        assertThat(configProxyRepository.getVersion().get()).isEqualTo("commit1");
+        assertThat(configProxyRepository.getStorage().getConfigByPath("path1").getContent()).isEqualTo("content1");
+        verify(configTopicProducer).notifyConfigurationChanged("commit1", singletonList("path1"));
+    }
+
+    @Test
+    public void cloneFolder() {
+        // storage can be behind git, the committed content is applied
+        configProxyRepository.getStorage().updateConfig("/config/tenants/A/a.yml",
+                                                        new Configuration("/config/tenants/A/a.yml", "stale"));
+        Configuration cloned = new Configuration("/config/tenants/C/a.yml", "content1");
+        when(persistenceConfigRepository.cloneFolder("/config/tenants/A", "/config/tenants/C"))
+            .thenReturn(new ConfigurationList("commit1", singletonList(cloned)));
+
+        ConfigurationList result = configProxyRepository.cloneFolder("/config/tenants/A", "/config/tenants/C");
+
+        assertThat(result.getCommit()).isEqualTo("commit1");
+        assertThat(configProxyRepository.getStorage().getConfigByPath("/config/tenants/C/a.yml").getContent())
+            .isEqualTo("content1");
+        assertThat(configProxyRepository.getVersion().get()).isEqualTo("commit1");
+        verify(configTopicProducer).notifyConfigurationChanged("commit1", singletonList("/config/tenants/C/a.yml"));
+    }
+
+    @Test
+    public void rollbackFolder() {
+        configProxyRepository.getStorage().updateConfig("/config/tenants/A/a.yml",
+                                                        new Configuration("/config/tenants/A/a.yml", "content2"));
+        configProxyRepository.getStorage().updateConfig("/config/tenants/A/d.yml",
+                                                        new Configuration("/config/tenants/A/d.yml", "content1"));
+        Configuration restored = new Configuration("/config/tenants/A/a.yml", "content1");
+        when(persistenceConfigRepository.rollbackFolder("/config/tenants/A", "commit1"))
+            .thenReturn(new ConfigurationChanges("commit2", false, singletonMap(restored.getPath(), restored),
+                                                 Collections.singleton("/config/tenants/A/d.yml")));
+
+        configProxyRepository.rollbackFolder("/config/tenants/A", "commit1");
+
+        assertThat(configProxyRepository.getVersion().get()).isEqualTo("commit2");
+        assertThat(configProxyRepository.getStorage().getConfigByPath("/config/tenants/A/a.yml")).isEqualTo(restored);
+        assertThat(configProxyRepository.getStorage().getConfigByPath("/config/tenants/A/d.yml")).isNull();
+        verify(configTopicProducer).notifyConfigurationChanged("commit2",
+                                                               asList("/config/tenants/A/a.yml", "/config/tenants/A/d.yml"));
+    }
+
     @Test
     public void delete() {
         when(persistenceConfigRepository.delete("path1")).thenReturn("commit1");
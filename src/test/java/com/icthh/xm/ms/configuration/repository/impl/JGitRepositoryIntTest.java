@@ -2,7 +2,13 @@ package com.icthh.xm.ms.configuration.repository.impl;
 
 import static com.icthh.xm.ms.configuration.config.LocalJGitRepositoryConfiguration.createGitRepository;
 import static org.eclipse.jgit.api.Git.cloneRepository;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.request.XmRequestContextHolder;
@@ -12,16 +18,33 @@ import com.icthh.xm.commons.security.internal.SpringSecurityXmAuthenticationCont
 import com.icthh.xm.commons.tenant.TenantContextHolder;
 import com.icthh.xm.commons.tenant.internal.DefaultTenantContextHolder;
 import com.icthh.xm.ms.configuration.config.ApplicationProperties.GitProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationChanges;
+import com.icthh.xm.ms.configuration.domain.ConfigurationCommit;
+import com.icthh.xm.ms.configuration.domain.ConfigurationDiff;
+import com.icthh.xm.ms.configuration.domain.ConfigurationList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import java.util.concurrent.locks.ReentrantLock;
 import lombok.SneakyThrows;
+import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.merge.MergeStrategy;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 
 public class JGitRepositoryIntTest {
 
@@ -70,4 +93,299 @@ public class JGitRepositoryIntTest {
         assertEquals("3", jGitRepository.find(path).getData().getContent());
         assertEquals("2", jGitRepository.find(path, ref).getData().getContent());
     }
+
+    @Test
+    public void testFindHistory() {
+        String path = "/config/test.file";
+        String ref1 = jGitRepository.save(new Configuration(path, "1"));
+        String ref2 = jGitRepository.save(new Configuration(path, "2"));
+        jGitRepository.save(new Configuration("/config/other.file", "1"));
+        String ref3 = jGitRepository.save(new Configuration(path, "3"));
+
+        Page<ConfigurationCommit> firstPage = jGitRepository.findHistory(path, PageRequest.of(0, 2));
+        Page<ConfigurationCommit> secondPage = jGitRepository.findHistory(path, PageRequest.of(1, 2));
+
+        assertEquals(3, firstPage.getTotalElements());
+        assertEquals(asList(ref3, ref2), toCommits(firstPage));
+        assertEquals(singletonList(ref1), toCommits(secondPage));
+    }
+
+    @Test
+    public void testFindHistoryOlderThanIndexed() {
+        gitProperties.setHistoryMaxCommitsPerPath(1);
+        String path = "/config/test.file";
+        String ref1 = jGitRepository.save(new Configuration(path, "1"));
+        String ref2 = jGitRepository.save(new Configuration(path, "2"));
+        String ref3 = jGitRepository.save(new Configuration(path, "3"));
+        JGitRepository repository = new JGitRepository(gitProperties, new ReentrantLock(), tenantContextHolder,
+                                                       authenticationContextHolder, requestContextHolder);
+
+        Page<ConfigurationCommit> indexed = repository.findHistory(path, PageRequest.of(0, 1));
+        Page<ConfigurationCommit> all = repository.findHistory(path, PageRequest.of(0, 3));
+        Page<ConfigurationCommit> last = repository.findHistory(path, PageRequest.of(2, 1));
+
+        assertEquals(3, all.getTotalElements());
+        assertEquals(singletonList(ref3), toCommits(indexed));
+        assertEquals(asList(ref3, ref2, ref1), toCommits(all));
+        assertEquals(singletonList(ref1), toCommits(last));
+        repository.destroy();
+    }
+
+    @Test
+    @SneakyThrows
+    public void testFindHistoryWithMergeCommit() {
+        String path = "/config/tenants/A/a.yml";
+        String ref1 = jGitRepository.save(new Configuration(path, "1"));
+        String sideRef;
+        try (Git git = Git.open(initTestGitFolder.getRoot())) {
+            git.fetch().call();
+            git.reset().setMode(ResetType.HARD).setRef("origin/test").call();
+            git.checkout().setCreateBranch(true).setName("side").call();
+            sideRef = commitFile(git, "config/tenants/A/a.yml", "2");
+            git.checkout().setName("test").call();
+            commitFile(git, "config/tenants/A/b.yml", "1");
+            git.merge().include(git.getRepository().resolve("side")).setMessage("Merge side").call();
+            git.push().setRemote("origin").add("test").call();
+        }
+
+        Page<ConfigurationCommit> history = jGitRepository.findHistory(path, PageRequest.of(0, 10));
+
+        assertEquals(2, history.getTotalElements());
+        assertEquals(asList(sideRef, ref1), toCommits(history));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testFindHistoryOlderThanIndexedWithDiscardedMerge() {
+        gitProperties.setHistoryMaxCommitsPerPath(1);
+        String path = "/config/tenants/A/a.yml";
+        String ref1 = jGitRepository.save(new Configuration(path, "1"));
+        String sideRef;
+        try (Git git = Git.open(initTestGitFolder.getRoot())) {
+            git.fetch().call();
+            git.reset().setMode(ResetType.HARD).setRef("origin/test").call();
+            git.checkout().setCreateBranch(true).setName("side").call();
+            sideRef = commitFile(git, "config/tenants/A/a.yml", "2");
+            git.checkout().setName("test").call();
+            commitFile(git, "config/tenants/A/b.yml", "1");
+            // merge keeps a.yml of the first parent, so the merge does not change it
+            git.merge().include(git.getRepository().resolve("side")).setStrategy(MergeStrategy.OURS)
+               .setMessage("Merge side").call();
+            git.push().setRemote("origin").add("test").call();
+        }
+        JGitRepository repository = new JGitRepository(gitProperties, new ReentrantLock(), tenantContextHolder,
+                                                       authenticationContextHolder, requestContextHolder);
+
+        Page<ConfigurationCommit> indexed = repository.findHistory(path, PageRequest.of(0, 1));
+        Page<ConfigurationCommit> fromLog = repository.findHistory(path, PageRequest.of(0, 2));
+
+        assertEquals(2, indexed.getTotalElements());
+        assertEquals(singletonList(sideRef), toCommits(indexed));
+        assertEquals(asList(sideRef, ref1), toCommits(fromLog));
+        repository.destroy();
+    }
+
+    @SneakyThrows
+    private static String commitFile(Git git, String path, String content) {
+        FileUtils.write(new File(git.getRepository().getWorkTree(), path), content, UTF_8);
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage("Update " + path).call().getName();
+    }
+
+    private static List<String> toCommits(Page<ConfigurationCommit> page) {
+        return page.getContent().stream().map(ConfigurationCommit::getCommit).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testFindChangesAndDiff() {
+        String ref1 = jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "a: 1\n"));
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "a: 2\n"));
+        jGitRepository.save(new Configuration("/config/tenants/C/c.yml", "c: 1\n"));
+        String ref2 = jGitRepository.save(new Configuration("/config/tenants/A/b.yml", "b: 1\n"));
+
+        List<ConfigurationDiff> changes = jGitRepository.findChanges(ref1, ref2, "/config/tenants/A");
+        String diff = jGitRepository.diff(ref1, null, "/config/tenants/A/a.yml");
+
+        assertEquals(asList("MODIFY /config/tenants/A/a.yml", "ADD /config/tenants/A/b.yml"),
+                     changes.stream()
+                            .map(change -> change.getChangeType() + " " + change.getNewPath())
+                            .sorted(Comparator.reverseOrder())
+                            .collect(Collectors.toList()));
+        assertTrue(diff.contains("-a: 1\n+a: 2\n"));
+        assertFalse(diff.contains("b.yml"));
+    }
+
+    @Test
+    public void testDiffToHeadAfterNewCommit() {
+        String ref = jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "a: 1\n"));
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "a: 2\n"));
+
+        assertTrue(jGitRepository.diff(ref, "HEAD", "/config/tenants/A").contains("+a: 2\n"));
+
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "a: 3\n"));
+
+        assertTrue(jGitRepository.diff(ref, "HEAD", "/config/tenants/A").contains("+a: 3\n"));
+        assertEquals(1, jGitRepository.findChanges(ref, "HEAD", "/config/tenants/A").size());
+    }
+
+    @Test
+    public void testExportAndImportArchive() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        String ref = jGitRepository.save(new Configuration("/config/tenants/A/folder/b.yml", "2"));
+        jGitRepository.save(new Configuration("/config/tenants/A/folder/b.yml", "3"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        assertEquals(ref, jGitRepository.exportArchive("/config/tenants/A", ref, archive));
+        ConfigurationList imported = jGitRepository.importArchive("/config/tenants/B",
+                                                                  new ByteArrayInputStream(archive.toByteArray()));
+
+        assertEquals(2, imported.getData().size());
+        assertEquals("1", jGitRepository.find("/config/tenants/B/a.yml").getData().getContent());
+        assertEquals("2", jGitRepository.find("/config/tenants/B/folder/b.yml").getData().getContent());
+        assertEquals("2", jGitRepository.find("/config/tenants/B/folder/b.yml", imported.getCommit())
+                                        .getData().getContent());
+    }
+
+    @Test
+    public void testExportMissingTenant() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        try {
+            jGitRepository.exportArchive("/config/tenants/MISSING", null, archive);
+            fail("Missing tenant is exported");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, archive.size());
+        }
+    }
+
+    @Test
+    public void testImportArchiveKeepsAbsentFiles() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/B/a.yml", "old"));
+        jGitRepository.save(new Configuration("/config/tenants/B/c.yml", "kept"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        jGitRepository.exportArchive("/config/tenants/A", null, archive);
+
+        jGitRepository.importArchive("/config/tenants/B", new ByteArrayInputStream(archive.toByteArray()));
+
+        assertEquals("1", jGitRepository.find("/config/tenants/B/a.yml").getData().getContent());
+        assertEquals("kept", jGitRepository.find("/config/tenants/B/c.yml").getData().getContent());
+    }
+
+    @Test
+    public void testExportWholeRepositoryAndImportWithoutChanges() {
+        String ref = jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        jGitRepository.exportArchive("/", null, archive);
+        ConfigurationList imported = jGitRepository.importArchive("/",
+                                                                  new ByteArrayInputStream(archive.toByteArray()));
+
+        assertTrue(imported.getData().stream()
+                           .anyMatch(configuration -> configuration.getPath().equals("/config/tenants/A/a.yml")));
+        assertEquals(ref, imported.getCommit());
+    }
+
+    @Test
+    @SneakyThrows
+    public void testImportArchiveLargerThanLimit() {
+        gitProperties.setMaxImportBytes(3);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("a.yml"));
+            zip.write("12".getBytes(UTF_8));
+            zip.putNextEntry(new ZipEntry("b.yml"));
+            zip.write("34".getBytes(UTF_8));
+        }
+
+        try {
+            jGitRepository.importArchive("/config/tenants/B", new ByteArrayInputStream(archive.toByteArray()));
+            fail("Archive larger than limit is imported");
+        } catch (IllegalArgumentException e) {
+            assertFalse(new File(configGitFolder.getRoot(), "config/tenants/B/a.yml").exists());
+        }
+    }
+
+    @Test
+    public void testCloneFolder() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/A/folder/b.yml", "2"));
+
+        ConfigurationList cloned = jGitRepository.cloneFolder("/config/tenants/A", "/config/tenants/C");
+
+        assertEquals(2, cloned.getData().size());
+        assertTrue(cloned.getData().stream().anyMatch(configuration ->
+            configuration.getPath().equals("/config/tenants/C/folder/b.yml") && configuration.getContent().equals("2")));
+        String commit = cloned.getCommit();
+        assertEquals("1", jGitRepository.find("/config/tenants/C/a.yml", commit).getData().getContent());
+        assertEquals("2", jGitRepository.find("/config/tenants/C/folder/b.yml").getData().getContent());
+        assertEquals("1", jGitRepository.find("/config/tenants/A/a.yml").getData().getContent());
+        assertEquals(4, jGitRepository.findAll().getData().stream()
+                                      .filter(configuration -> configuration.getPath().startsWith("/config/tenants/"))
+                                      .count());
+    }
+
+    @Test
+    public void testRollbackFolder() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/A/b.yml", "1"));
+        String ref = jGitRepository.save(new Configuration("/config/tenants/C/c.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "2"));
+        jGitRepository.delete("/config/tenants/A/b.yml");
+        jGitRepository.save(new Configuration("/config/tenants/A/d.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/C/c.yml", "2"));
+
+        ConfigurationChanges changes = jGitRepository.rollbackFolder("/config/tenants/A", ref);
+
+        assertEquals("1", changes.getConfigurations().get("/config/tenants/A/a.yml").getContent());
+        assertEquals("1", changes.getConfigurations().get("/config/tenants/A/b.yml").getContent());
+        assertEquals(2, changes.getConfigurations().size());
+        assertEquals(singletonList("/config/tenants/A/d.yml"), new ArrayList<>(changes.getDeletedPaths()));
+        assertEquals("1", jGitRepository.find("/config/tenants/A/a.yml").getData().getContent());
+        assertEquals("1", jGitRepository.find("/config/tenants/A/b.yml", changes.getVersion()).getData().getContent());
+        assertFalse(new File(configGitFolder.getRoot(), "config/tenants/A/d.yml").exists());
+        assertEquals("2", jGitRepository.find("/config/tenants/C/c.yml").getData().getContent());
+
+        ConfigurationChanges noChanges = jGitRepository.rollbackFolder("/config/tenants/A", ref);
+        assertEquals(changes.getVersion(), noChanges.getVersion());
+        assertTrue(noChanges.getConfigurations().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRollbackRootFolder() {
+        String ref = jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "2"));
+
+        jGitRepository.rollbackFolder("/", ref);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCloneFolderToExistingFolder() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        jGitRepository.save(new Configuration("/config/tenants/C/c.yml", "2"));
+
+        jGitRepository.cloneFolder("/config/tenants/A", "/config/tenants/C");
+    }
+
+    @Test
+    @SneakyThrows
+    public void testImportArchiveOutsideOfPrefix() {
+        jGitRepository.save(new Configuration("/config/tenants/A/a.yml", "1"));
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("b.yml"));
+            zip.write("2".getBytes(UTF_8));
+            zip.putNextEntry(new ZipEntry("../A/a.yml"));
+            zip.write("3".getBytes(UTF_8));
+        }
+
+        try {
+            jGitRepository.importArchive("/config/tenants/B", new ByteArrayInputStream(archive.toByteArray()));
+            fail("Archive entry outside of prefix is imported");
+        } catch (IllegalArgumentException e) {
+            assertEquals("1", jGitRepository.find("/config/tenants/A/a.yml").getData().getContent());
+            assertFalse(new File(configGitFolder.getRoot(), "config/tenants/B/b.yml").exists());
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package com.icthh.xm.ms.configuration.repository.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.icthh.xm.commons.config.client.config.XmConfigProperties;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfigEventOutboxUnitTest {
+
+    @Rule
+    public TemporaryFolder outboxFolder = new TemporaryFolder();
+
+    @Mock
+    private KafkaTemplate<String, String> template;
+    @Mock
+    private XmConfigProperties configProperties;
+
+    private ApplicationProperties applicationProperties = new ApplicationProperties();
+    private ConfigEventOutbox outbox;
+
+    @Before
+    public void before() {
+        applicationProperties.getConfigTopic().setOutboxDir(outboxFolder.getRoot().getAbsolutePath());
+        applicationProperties.getConfigTopic().setRetryDelayMs(100);
+        applicationProperties.getConfigTopic().setDeliveryTimeoutMs(1000);
+        when(configProperties.getKafkaConfigTopic()).thenReturn("topic");
+    }
+
+    @After
+    public void after() throws Exception {
+        if (outbox != null) {
+            outbox.destroy();
+        }
+    }
+
+    @Test
+    public void deliverEventInBackground() throws Exception {
+        when(template.send("topic", "A", "event")).thenReturn(delivered());
+        outbox = createOutbox();
+
+        outbox.append("A", "event");
+
+        awaitDepth(0);
+        verify(template).send("topic", "A", "event");
+    }
+
+    @Test
+    public void restoreNotDeliveredEventsAfterRestart() throws Exception {
+        when(template.send(anyString(), anyString())).thenReturn(failed());
+        outbox = createOutbox();
+        outbox.append(null, "event1");
+        outbox.append(null, "event2");
+        outbox.destroy();
+        assertThat(outbox.getDepth()).isEqualTo(2);
+
+        when(template.send(anyString(), anyString())).thenReturn(delivered());
+        outbox = createOutbox();
+
+        awaitDepth(0);
+        verify(template, atLeastOnce()).send("topic", "event1");
+        verify(template, atLeastOnce()).send("topic", "event2");
+        assertThat(outboxFolder.getRoot().toPath().resolve("config-events.outbox")).hasContent("");
+    }
+
+    @Test
+    public void dropOldestEventsWhenMaxDepthExceeded() throws Exception {
+        applicationProperties.getConfigTopic().setOutboxMaxDepth(2);
+        when(template.send(anyString(), anyString())).thenReturn(failed());
+        outbox = createOutbox();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        outbox.bindTo(registry);
+
+        outbox.append(null, "event1");
+        outbox.append(null, "event2");
+        outbox.append(null, "event3");
+        outbox.destroy();
+
+        assertThat(outbox.getDepth()).isEqualTo(2);
+        assertThat(registry.get("config.topic.outbox.dropped").functionCounter().count()).isEqualTo(1.0);
+
+        outbox = createOutbox();
+        assertThat(outbox.getDepth()).isEqualTo(2);
+    }
+
+    @Test
+    public void compactOutboxFileWhilePendingEventIsNotDelivered() throws Exception {
+        when(template.send("topic", "A", "stuck")).thenReturn(failed());
+        when(template.send(eq("topic"), eq("B"), anyString())).thenReturn(delivered());
+        outbox = createOutbox();
+
+        outbox.append("A", "stuck");
+        for (int i = 0; i < 500; i++) {
+            outbox.append("B", "event" + i);
+        }
+
+        awaitDepth(1);
+        Path outboxFile = outboxFolder.getRoot().toPath().resolve("config-events.outbox");
+        assertThat(Files.readAllLines(outboxFile)).hasSizeLessThanOrEqualTo(4 + 100);
+        outbox.destroy();
+
+        outbox = createOutbox();
+        assertThat(outbox.getDepth()).isEqualTo(1);
+        assertThat(Files.readAllLines(outboxFile)).hasSize(1).allMatch(line -> line.contains("stuck"));
+    }
+
+    private ConfigEventOutbox createOutbox() throws Exception {
+        ConfigEventOutbox created = new ConfigEventOutbox(template, configProperties, applicationProperties);
+        created.init();
+        return created;
+    }
+
+    private void awaitDepth(int depth) throws InterruptedException {
+        for (int i = 0; i < 50 && outbox.getDepth() != depth; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(outbox.getDepth()).isEqualTo(depth);
+    }
+
+    private static SettableListenableFuture<SendResult<String, String>> delivered() {
+        SettableListenableFuture<SendResult<String, String>> future = new SettableListenableFuture<>();
+        future.set(null);
+        return future;
+    }
+
+    private static SettableListenableFuture<SendResult<String, String>> failed() {
+        SettableListenableFuture<SendResult<String, String>> future = new SettableListenableFuture<>();
+        future.setException(new IllegalStateException("kafka is not available"));
+        return future;
+    }
+}
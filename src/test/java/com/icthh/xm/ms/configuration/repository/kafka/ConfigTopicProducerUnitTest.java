@@ -1,21 +1,43 @@
 package com.icthh.xm.ms.configuration.repository.kafka;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.codec.digest.DigestUtils.sha1Hex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
-import com.icthh.xm.commons.config.client.config.XmConfigProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.logging.util.MdcUtils;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.repository.impl.MemoryConfigStorage;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.kafka.core.KafkaTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigTopicProducerUnitTest {
@@ -23,23 +45,169 @@ public class ConfigTopicProducerUnitTest {
     @InjectMocks
     private ConfigTopicProducer producer;
     @Mock
-    private KafkaTemplate kafkaTemplate;
+    private ConfigEventOutbox outbox;
     @Mock
-    private XmConfigProperties configProperties;
+    private MemoryConfigStorage storage;
+    @Spy
+    private ApplicationProperties applicationProperties = new ApplicationProperties();
 
     @Test
     public void notifyConfigurationChanged() {
         MdcUtils.putRid("testRid");
-        when(configProperties.getKafkaConfigTopic()).thenReturn("topic");
         producer.notifyConfigurationChanged("commit", Collections.singletonList("path"));
 
-        verify(kafkaTemplate).send("topic", "{\"eventId\":\"testRid\",\"commit\":\"commit\",\"paths\":[\"path\"]}");
+        verify(outbox).append(null, "{\"eventId\":\"testRid\",\"commit\":\"commit\",\"paths\":[\"path\"]}");
     }
 
     @Test
     public void notifyConfigurationChangedIfNoPaths() {
         producer.notifyConfigurationChanged("commit", Collections.emptyList());
 
-        verifyZeroInteractions(kafkaTemplate);
+        verifyZeroInteractions(outbox);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void coalesceChangesIntoOneEventWithLatestCommit() throws Exception {
+        applicationProperties.getConfigTopic().setCoalesceWindowMs(60000);
+
+        producer.notifyConfigurationChanged("commit1", Arrays.asList("path1", "path2"));
+        producer.notifyConfigurationChanged("commit2", Collections.singletonList("path3"));
+        verify(outbox, never()).append(any(), any());
+
+        producer.destroy();
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox).append(isNull(), content.capture());
+        JsonNode event = new ObjectMapper().readTree(content.getValue());
+        assertEquals("commit2", event.get("commit").asText());
+        assertEquals(new HashSet<>(Arrays.asList("path1", "path2", "path3")),
+                     new HashSet<>(Arrays.asList(new ObjectMapper().treeToValue(event.get("paths"), String[].class))));
+    }
+
+    @Test
+    public void sendCoalescedChangesWhenPathsCapReached() throws Exception {
+        applicationProperties.getConfigTopic().setCoalesceWindowMs(60000);
+        applicationProperties.getConfigTopic().setCoalesceMaxPaths(2);
+
+        producer.notifyConfigurationChanged("commit1", Collections.singletonList("path1"));
+        producer.notifyConfigurationChanged("commit2", Collections.singletonList("path2"));
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox).append(isNull(), content.capture());
+        assertEquals("commit2", new ObjectMapper().readTree(content.getValue()).get("commit").asText());
+
+        producer.destroy();
+        verify(outbox).append(any(), any());
+    }
+
+    @Test
+    public void sendChangesImmediatelyAfterDestroy() {
+        applicationProperties.getConfigTopic().setCoalesceWindowMs(60000);
+        producer.destroy();
+
+        producer.notifyConfigurationChanged("commit", Collections.singletonList("path"));
+
+        verify(outbox).append(isNull(), any());
+    }
+
+    @Test
+    public void splitEventByTenantWithTenantKey() {
+        MdcUtils.putRid("testRid");
+
+        producer.notifyConfigurationChanged("commit", Arrays.asList("/config/tenants/A/a.yml",
+                                                                    "/config/tenants/B/b.yml",
+                                                                    "/config/tenants/tenants-list.json"));
+
+        verify(outbox).append("A",
+                              "{\"eventId\":\"testRid\",\"commit\":\"commit\",\"paths\":[\"/config/tenants/A/a.yml\"]}");
+        verify(outbox).append("B",
+                              "{\"eventId\":\"testRid\",\"commit\":\"commit\",\"paths\":[\"/config/tenants/B/b.yml\"]}");
+        verify(outbox).append(null,
+                              "{\"eventId\":\"testRid\",\"commit\":\"commit\",\"paths\":[\"/config/tenants/tenants-list.json\"]}");
+    }
+
+    @Test
+    public void chunkEventWhenExceedsMaxSize() throws Exception {
+        MdcUtils.putRid("testRid");
+        applicationProperties.getConfigTopic().setMaxEventBytes(120);
+
+        producer.notifyConfigurationChanged("commit", Arrays.asList("/config/tenants/A/file1.yml",
+                                                                    "/config/tenants/A/file2.yml",
+                                                                    "/config/tenants/A/file3.yml"));
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox, times(2)).append(eq("A"), content.capture());
+        assertEquals(2, new ObjectMapper().readTree(content.getAllValues().get(0)).get("paths").size());
+        assertEquals(1, new ObjectMapper().readTree(content.getAllValues().get(1)).get("paths").size());
+        content.getAllValues().forEach(value -> assertTrue(value.length() <= 120));
+    }
+
+    @Test
+    public void chunkInlinedEventWithinMaxSize() throws Exception {
+        MdcUtils.putRid("testRid");
+        applicationProperties.getConfigTopic().setInlineEnabled(true);
+        applicationProperties.getConfigTopic().setMaxEventBytes(400);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String path = "/config/tenants/A/\"file" + i + "\".yml";
+            paths.add(path);
+            when(storage.getPrivateConfig(path)).thenReturn(new Configuration(path, "key: \"v\u00e4lue\"\n\t" + i));
+        }
+
+        producer.notifyConfigurationChanged("commit", paths);
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox, atLeast(2)).append(eq("A"), content.capture());
+        Set<String> sentPaths = new HashSet<>();
+        for (String value : content.getAllValues()) {
+            assertTrue(value, value.getBytes(UTF_8).length <= 400);
+            JsonNode event = new ObjectMapper().readTree(value);
+            event.get("paths").forEach(path -> sentPaths.add(path.asText()));
+            event.get("configs").fieldNames().forEachRemaining(path -> assertTrue(
+                event.get("configs").get(path).has("content")));
+        }
+        assertEquals(new HashSet<>(paths), sentPaths);
+    }
+
+    @Test
+    public void inlineHashesAndSmallContent() throws Exception {
+        applicationProperties.getConfigTopic().setInlineEnabled(true);
+        applicationProperties.getConfigTopic().setInlineContentMaxBytes(10);
+        when(storage.getPrivateConfig("/config/tenants/A/small.yml"))
+            .thenReturn(new Configuration("/config/tenants/A/small.yml", "a: 1"));
+        when(storage.getPrivateConfig("/config/tenants/A/large.yml"))
+            .thenReturn(new Configuration("/config/tenants/A/large.yml", "a: 1234567890"));
+
+        producer.notifyConfigurationChanged("commit", Arrays.asList("/config/tenants/A/small.yml",
+                                                                    "/config/tenants/A/large.yml",
+                                                                    "/config/tenants/A/deleted.yml"));
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox).append(eq("A"), content.capture());
+        JsonNode configs = new ObjectMapper().readTree(content.getValue()).get("configs");
+        assertEquals(sha1Hex("a: 1"), configs.get("/config/tenants/A/small.yml").get("hash").asText());
+        assertEquals("a: 1", configs.get("/config/tenants/A/small.yml").get("content").asText());
+        assertEquals(sha1Hex("a: 1234567890"), configs.get("/config/tenants/A/large.yml").get("hash").asText());
+        assertFalse(configs.get("/config/tenants/A/large.yml").has("content"));
+        assertFalse(configs.has("/config/tenants/A/deleted.yml"));
+    }
+
+    @Test
+    public void inlineContentCapturedWhenChangeNotified() throws Exception {
+        applicationProperties.getConfigTopic().setInlineEnabled(true);
+        applicationProperties.getConfigTopic().setCoalesceWindowMs(60000);
+        when(storage.getPrivateConfig("/config/tenants/A/a.yml"))
+            .thenReturn(new Configuration("/config/tenants/A/a.yml", "a: 1"));
+
+        producer.notifyConfigurationChanged("commit1", Collections.singletonList("/config/tenants/A/a.yml"));
+        verify(storage).getPrivateConfig("/config/tenants/A/a.yml");
+        producer.flush();
+
+        verifyNoMoreInteractions(storage);
+
+        ArgumentCaptor<String> content = ArgumentCaptor.forClass(String.class);
+        verify(outbox).append(eq("A"), content.capture());
+        JsonNode configs = new ObjectMapper().readTree(content.getValue()).get("configs");
+        assertEquals("a: 1", configs.get("/config/tenants/A/a.yml").get("content").asText());
+    }
+}
@@ -0,0 +1,80 @@
+package com.icthh.xm.ms.configuration.repository.kafka;
+
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import com.icthh.xm.commons.permission.domain.Privilege;
+import com.icthh.xm.commons.request.XmRequestContextHolder;
+import com.icthh.xm.ms.configuration.service.PrivilegeService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SystemQueueConsumerUnitTest {
+
+    @InjectMocks
+    private SystemQueueConsumer consumer;
+    @Mock
+    private PrivilegeService privilegeService;
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private XmRequestContextHolder requestContextHolder;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void applyLatestPrivilegesOfEachAppOnce() {
+        consumer.consumeEvents(Arrays.asList(privilegesEvent("entity", "ENTITY.GET"),
+                                             privilegesEvent("uaa", "ACCOUNT.GET"),
+                                             privilegesEvent("entity", "ENTITY.CREATE")));
+
+        ArgumentCaptor<Map<String, Set<Privilege>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(privilegeService).updatePrivileges(captor.capture());
+        Map<String, Set<Privilege>> privileges = captor.getValue();
+        assertThat(privileges).containsOnlyKeys("uaa", "entity");
+        assertThat(privileges.get("entity").stream().map(Privilege::getKey).collect(toSet()))
+            .containsOnly("ENTITY.CREATE");
+        assertThat(privileges.get("uaa").stream().map(Privilege::getKey).collect(toSet()))
+            .containsOnly("ACCOUNT.GET");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void skipMalformedEventInBatch() {
+        consumer.consumeEvents(Arrays.asList(
+            record("{\"eventId\":\"1\",\"messageSource\":\"\",\"eventType\":\"MS_PRIVILEGES\",\"data\":{}}"),
+            privilegesEvent("uaa", "ACCOUNT.GET")));
+
+        ArgumentCaptor<Map<String, Set<Privilege>>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(privilegeService).updatePrivileges(captor.capture());
+        assertThat(captor.getValue()).containsOnlyKeys("uaa");
+    }
+
+    @Test
+    public void ignoreOtherEvents() {
+        consumer.consumeEvents(Collections.singletonList(
+            record("{\"eventId\":\"1\",\"messageSource\":\"entity\",\"eventType\":\"OTHER\",\"data\":{}}")));
+
+        verifyZeroInteractions(privilegeService);
+    }
+
+    private static ConsumerRecord<String, String> privilegesEvent(String appName, String privilegeKey) {
+        return record("{\"eventId\":\"1\",\"messageSource\":\"" + appName + "\",\"eventType\":\"MS_PRIVILEGES\","
+                      + "\"data\":{\"privileges\":\"" + appName + ":\\n  - key: " + privilegeKey + "\\n\"}}");
+    }
+
+    private static ConsumerRecord<String, String> record(String value) {
+        return new ConsumerRecord<>("system_queue", 0, 0, null, value);
+    }
+}
@@ -0,0 +1,111 @@
+package com.icthh.xm.ms.configuration.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.domain.ConfigurationWatchEvent;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+public class ConfigWatchServiceUnitTest {
+
+    private static final String ENTITY_PATTERN = "/config/tenants/*/entity/**";
+    private static final String ENTITY_PATH = "/config/tenants/XM/entity/specs/xmentityspec.yml";
+    private static final String UAA_PATH = "/config/tenants/XM/uaa/uaa.yml";
+
+    private ConfigChangeJournal changeJournal;
+    private ConfigWatchService configWatchService;
+
+    @Before
+    public void before() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        changeJournal = new ConfigChangeJournal(applicationProperties);
+        configWatchService = new ConfigWatchService(changeJournal, applicationProperties);
+        configWatchService.init();
+    }
+
+    @After
+    public void after() {
+        configWatchService.destroy();
+    }
+
+    @Test
+    public void watchReturnsMissedChanges() {
+        changeJournal.reset("commit1", "commit1-1");
+        changeJournal.record("commit2", "commit2-2", asList(ENTITY_PATH, UAA_PATH));
+
+        DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result =
+            configWatchService.watch("commit1", singletonList(ENTITY_PATTERN));
+
+        ConfigurationWatchEvent event = getEvent(result);
+        assertThat(event.getVersion()).isEqualTo("commit2-2");
+        assertThat(event.isReset()).isFalse();
+        assertThat(event.getPaths()).containsOnly(ENTITY_PATH);
+    }
+
+    @Test
+    public void watchWakesUpOnlyOnMatchedChange() throws InterruptedException {
+        changeJournal.reset("commit1", "commit1-1");
+
+        DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result =
+            configWatchService.watch("commit1", singletonList(ENTITY_PATTERN));
+        assertThat(result.hasResult()).isFalse();
+
+        changeJournal.record("commit2", "commit2-2", singletonList(UAA_PATH));
+        changeJournal.record("commit3", "commit3-3", singletonList(ENTITY_PATH));
+
+        ConfigurationWatchEvent event = awaitEvent(result);
+        assertThat(event.getVersion()).isEqualTo("commit3-3");
+        assertThat(event.getPaths()).containsOnly(ENTITY_PATH);
+    }
+
+    @Test
+    public void watchWithReturnedVersionWaitsAfterInMemoryChange() {
+        changeJournal.reset("commit1", "commit1-1");
+        changeJournal.record("commit1", "commit1-2", singletonList(ENTITY_PATH));
+
+        ConfigurationWatchEvent event = getEvent(configWatchService.watch("commit1", null));
+        assertThat(event.getVersion()).isEqualTo("commit1-2");
+        assertThat(event.getPaths()).containsOnly(ENTITY_PATH);
+
+        DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result =
+            configWatchService.watch(event.getVersion(), null);
+
+        assertThat(result.hasResult()).isFalse();
+        assertThat(configWatchService.getWatchersCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void watchResetsUnknownVersion() {
+        changeJournal.reset("commit2", "commit2-5");
+
+        ConfigurationWatchEvent event = getEvent(configWatchService.watch("unknown", null));
+
+        assertThat(event.getVersion()).isEqualTo("commit2-5");
+        assertThat(event.isReset()).isTrue();
+        assertThat(event.getPaths()).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConfigurationWatchEvent getEvent(DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result) {
+        assertThat(result.hasResult()).isTrue();
+        ResponseEntity<ConfigurationWatchEvent> response = (ResponseEntity<ConfigurationWatchEvent>) result.getResult();
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return response.getBody();
+    }
+
+    private static ConfigurationWatchEvent awaitEvent(DeferredResult<ResponseEntity<ConfigurationWatchEvent>> result)
+        throws InterruptedException {
+        for (int i = 0; i < 50 && !result.hasResult(); i++) {
+            Thread.sleep(100);
+        }
+        return getEvent(result);
+    }
+}
@@ -1,7 +1,11 @@
 package com.icthh.xm.ms.configuration.service;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -9,19 +13,27 @@ import com.icthh.xm.commons.config.domain.Configuration;
 import com.icthh.xm.commons.tenant.TenantContext;
 import com.icthh.xm.commons.tenant.TenantContextHolder;
 import com.icthh.xm.commons.tenant.TenantKey;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
 import com.icthh.xm.ms.configuration.domain.ConfigurationItem;
 import com.icthh.xm.ms.configuration.domain.ConfigurationList;
+import com.icthh.xm.ms.configuration.domain.ConfigurationUploadProgress;
 import com.icthh.xm.ms.configuration.repository.impl.ConfigProxyRepository;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.mock.web.MockMultipartFile;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ConfigurationServiceUnitTest {
@@ -34,6 +46,8 @@ public class ConfigurationServiceUnitTest {
     private TenantContextHolder tenantContextHolder;
     @Mock
     private TenantContext tenantContext;
+    @Spy
+    private ApplicationProperties applicationProperties = new ApplicationProperties();
 
     @Before
     public void before() {
@@ -43,10 +57,34 @@ public class ConfigurationServiceUnitTest {
 
     @Test
     public void createConfigurations() {
-        configurationService.createConfigurations(
-            singletonList(new MockMultipartFile("test", "path", "contentType", "content".getBytes())));
+        MockMultipartFile file = new MockMultipartFile("test", "path", "contentType", "content".getBytes());
 
-        verify(configProxyRepository).saveAll(singletonList(new Configuration("path", "content")));
+        configurationService.createConfigurations(singletonList(file));
+
+        verify(configProxyRepository).saveAll(singletonMap("path", file));
+    }
+
+    @Test
+    public void createConfigurationsInBatches() {
+        applicationProperties.getUpload().setMaxBatchSize(2);
+        MockMultipartFile file1 = new MockMultipartFile("test", "path1", "contentType", "content1".getBytes());
+        MockMultipartFile file2 = new MockMultipartFile("test", "path2", "contentType", "content2".getBytes());
+        MockMultipartFile file3 = new MockMultipartFile("test", "path3", "contentType", "content3".getBytes());
+        when(configProxyRepository.saveAll(any(Map.class))).thenReturn("commit1", "commit2");
+        List<ConfigurationUploadProgress> progress = new ArrayList<>();
+
+        configurationService.createConfigurations(asList(file1, file2, file3), progress::add);
+
+        Map<String, MockMultipartFile> firstBatch = new LinkedHashMap<>();
+        firstBatch.put("path1", file1);
+        firstBatch.put("path2", file2);
+        verify(configProxyRepository).saveAll(firstBatch);
+        verify(configProxyRepository).saveAll(singletonMap("path3", file3));
+        assertThat(progress).extracting(ConfigurationUploadProgress::getSaved).containsExactly(2, 3);
+        assertThat(progress).extracting(ConfigurationUploadProgress::getTotal).containsExactly(3, 3);
+        assertThat(progress).extracting(ConfigurationUploadProgress::getCommit).containsExactly("commit1", "commit2");
+        assertThat(progress).extracting(ConfigurationUploadProgress::getBatch).containsExactly(1, 2);
+        assertThat(progress).extracting(ConfigurationUploadProgress::getBatches).containsExactly(2, 2);
     }
 
     @Test
@@ -67,6 +105,41 @@ public class ConfigurationServiceUnitTest {
         verify(configProxyRepository).save(configuration, "hash");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patchConfiguration() {
+        when(configProxyRepository.update(eq("path.yml"), any(UnaryOperator.class)))
+            .thenReturn(new ConfigurationItem("commit", new Configuration("path.yml", "patched")));
+
+        boolean updated = configurationService.patchConfiguration("path.yml",
+            "{\"b\": {\"c\": 3}, \"d\": null}", null);
+
+        ArgumentCaptor<UnaryOperator> updater = ArgumentCaptor.forClass(UnaryOperator.class);
+        verify(configProxyRepository).update(eq("path.yml"), updater.capture());
+        assertThat(updated).isTrue();
+        assertThat(updater.getValue().apply("a: 1\nb:\n  c: 2\nd: 4\n")).isEqualTo("---\na: 1\nb:\n  c: 3\n");
+
+        String unchanged = "a: 1\nb:\n  c: 3\n";
+        assertThat(updater.getValue().apply(unchanged)).isSameAs(unchanged);
+    }
+
+    @Test(expected = ConcurrentConfigModificationException.class)
+    @SuppressWarnings("unchecked")
+    public void patchConfigurationWithWrongHash() {
+        when(configProxyRepository.update(eq("path.json"), any(UnaryOperator.class)))
+            .thenAnswer(invocation -> {
+                UnaryOperator<String> updater = (UnaryOperator<String>) invocation.getArguments()[1];
+                return new ConfigurationItem("commit", new Configuration("path.json", updater.apply("{}")));
+            });
+
+        configurationService.patchConfiguration("path.json", "{\"a\": 1}", "hash");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void patchConfigurationWithInvalidPatch() {
+        configurationService.patchConfiguration("path.json", "{\"a\": ", null);
+    }
+
     @Test
     public void findConfiguration() {
         Configuration configuration = new Configuration("path", "content");
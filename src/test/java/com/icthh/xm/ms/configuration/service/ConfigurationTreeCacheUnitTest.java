@@ -0,0 +1,70 @@
+package com.icthh.xm.ms.configuration.service;
+
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.ADMIN_API;
+import static com.icthh.xm.ms.configuration.service.ConfigurationTreeCache.YML_TO_JSON;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigurationTreeCacheUnitTest {
+
+    private static final String PATH = "/config/tenants/XM/webapp/settings-public.yml";
+
+    private ConfigurationTreeCache cache;
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void before() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getTreeCache().setMaxSize(2);
+        cache = new ConfigurationTreeCache(applicationProperties);
+        registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+    }
+
+    @Test
+    public void shareTreeBetweenConsumers() {
+        JsonNode tree = cache.getTree(YML_TO_JSON, PATH, "hash1", "key: value");
+
+        assertThat(tree.get("key").asText()).isEqualTo("value");
+        assertThat(cache.getTree(ADMIN_API, PATH, "hash1", "key: value")).isSameAs(tree);
+        assertThat(count("config.tree.cache.misses", YML_TO_JSON)).isEqualTo(1.0);
+        assertThat(count("config.tree.cache.hits", ADMIN_API)).isEqualTo(1.0);
+    }
+
+    @Test
+    public void copyTreeForConsumerThatModifiesIt() {
+        JsonNode tree = cache.getTree(YML_TO_JSON, PATH, "hash1", "key: value");
+        JsonNode copy = cache.getTreeCopy(ADMIN_API, PATH, "hash1", "key: value");
+
+        assertThat(copy).isNotSameAs(tree).isEqualTo(tree);
+        ((ObjectNode) copy).put("key", "changed");
+        assertThat(cache.getTree(YML_TO_JSON, PATH, "hash1", "key: value").get("key").asText()).isEqualTo("value");
+        assertThat(count("config.tree.cache.hits", ADMIN_API)).isEqualTo(1.0);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedTree() {
+        JsonNode first = cache.getTree(ADMIN_API, PATH, "hash1", "key: 1");
+        cache.getTree(ADMIN_API, PATH, "hash2", "key: 2");
+        cache.getTree(ADMIN_API, PATH, "hash3", "key: 3");
+
+        assertThat(registry.get("config.tree.cache.size").gauge().value()).isEqualTo(2.0);
+        assertThat(cache.getTree(ADMIN_API, PATH, "hash1", "key: 1")).isNotSameAs(first).isEqualTo(first);
+    }
+
+    @Test
+    public void returnMissingNodeForEmptyContent() {
+        assertThat(cache.getTree(ADMIN_API, PATH, null, null).isMissingNode()).isTrue();
+        assertThat(cache.getTree(ADMIN_API, PATH, null, "").isMissingNode()).isTrue();
+    }
+
+    private double count(String name, String consumer) {
+        return registry.get(name).tag("consumer", consumer).functionCounter().count();
+    }
+}
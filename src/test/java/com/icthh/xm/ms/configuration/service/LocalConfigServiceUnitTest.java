@@ -40,7 +40,7 @@ public class LocalConfigServiceUnitTest {
     @Test
     public void updateConfigurations() {
         Map<String, Configuration> config = Collections.singletonMap("path", new Configuration("path", "content"));
-        when(inMemoryRepository.getMap("commit")).thenReturn(config);
+        when(inMemoryRepository.getMap("commit", Collections.singletonList("path"))).thenReturn(config);
 
         configService.addConfigurationChangedListener(configurationListener);
         configService.updateConfigurations("commit", Collections.singletonList("path"));
@@ -0,0 +1,146 @@
+package com.icthh.xm.ms.configuration.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.commons.permission.config.PermissionProperties;
+import com.icthh.xm.commons.permission.domain.Privilege;
+import com.icthh.xm.commons.permission.domain.mapper.PrivilegeMapper;
+import com.icthh.xm.commons.request.internal.PrototypeXmRequestContextHolder;
+import com.icthh.xm.ms.configuration.domain.TenantState;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrivilegeServiceUnitTest {
+
+    private static final String PRIVILEGES_PATH = "/config/tenants/privileges.yml";
+    private static final String PERMISSIONS_PATH = "/config/tenants/{tenantName}/permissions.yml";
+
+    @Mock
+    private ConfigurationService configurationService;
+    @Mock
+    private TenantService tenantService;
+
+    private PrivilegeService privilegeService;
+
+    @Before
+    public void before() {
+        PermissionProperties properties = new PermissionProperties();
+        properties.setPrivilegesSpecPath(PRIVILEGES_PATH);
+        properties.setPermissionsSpecPath(PERMISSIONS_PATH);
+        privilegeService = new PrivilegeService(properties, configurationService, tenantService,
+                                                new PrototypeXmRequestContextHolder());
+    }
+
+    @After
+    public void after() {
+        privilegeService.destroy();
+    }
+
+    @Test
+    public void savePrivilegesAndPermissionsOfSeveralAppsWithOneCommit() {
+        mockConfig(PRIVILEGES_PATH, "entity:\n  - key: ENTITY.GET\nuaa:\n  - key: ACCOUNT.GET\n");
+        mockConfig("/config/tenants/A/permissions.yml", permission("entity", "ENTITY.GET")
+                                                        + permission("uaa", "ACCOUNT.GET"));
+        mockConfig("/config/tenants/B/permissions.yml", permission("uaa", "ACCOUNT.GET"));
+        mockTenants("entity", "A");
+        mockTenants("uaa", "A", "B");
+
+        privilegeService.updatePrivileges(privileges("entity:\n  - key: ENTITY.CREATE\n"
+                                                     + "uaa:\n  - key: ACCOUNT.CREATE\n"));
+
+        Map<String, String> saved = captureSavedConfigs();
+        assertThat(saved).containsOnlyKeys(PRIVILEGES_PATH, "/config/tenants/A/permissions.yml",
+                                           "/config/tenants/B/permissions.yml");
+        assertThat(PrivilegeMapper.ymlToPrivileges(saved.get(PRIVILEGES_PATH))).containsOnlyKeys("entity", "uaa");
+        assertThat(saved.get("/config/tenants/A/permissions.yml")).contains("deleted: true")
+                                                                  .doesNotContain("deleted: false");
+        assertThat(saved.get("/config/tenants/B/permissions.yml")).contains("deleted: true")
+                                                                  .doesNotContain("deleted: false");
+    }
+
+    @Test
+    public void mergePermissionsOfSeveralAppsInTenantConfig() {
+        mockConfig(PRIVILEGES_PATH, "entity:\n  - key: ENTITY.GET\nuaa:\n  - key: ACCOUNT.GET\n");
+        mockConfig("/config/tenants/A/permissions.yml", permission("entity", "ENTITY.GET")
+                                                        + permission("uaa", "ACCOUNT.GET"));
+        mockTenants("entity", "A");
+        mockTenants("uaa", "A");
+
+        privilegeService.updatePrivileges(privileges("entity:\n  - key: ENTITY.GET\n"
+                                                     + "uaa:\n  - key: ACCOUNT.CREATE\n"));
+
+        String permissions = captureSavedConfigs().get("/config/tenants/A/permissions.yml");
+        assertThat(permissions).contains("entity:", "uaa:", "ENTITY.GET", "ACCOUNT.GET");
+        assertThat(StringUtils.countMatches(permissions, "deleted: true")).isEqualTo(1);
+        assertThat(StringUtils.countMatches(permissions, "deleted: false")).isEqualTo(1);
+        verify(configurationService).findConfiguration("/config/tenants/A/permissions.yml");
+    }
+
+    @Test
+    public void skipPermissionsEqualAfterParsing() {
+        mockConfig(PRIVILEGES_PATH, "entity:\n  - key: ENTITY.GET\n  - key: ENTITY.DELETE\n");
+        mockConfig("/config/tenants/A/permissions.yml", "# edited manually\n" + permission("entity", "ENTITY.GET"));
+        mockTenants("entity", "A");
+
+        privilegeService.updatePrivileges(privileges("entity:\n  - key: ENTITY.GET\n"));
+
+        assertThat(captureSavedConfigs()).containsOnlyKeys(PRIVILEGES_PATH);
+    }
+
+    @Test
+    public void propagateSaveFailure() {
+        mockConfig(PRIVILEGES_PATH, "entity:\n  - key: ENTITY.GET\n");
+        mockTenants("entity");
+        doThrow(new IllegalStateException("git is not available"))
+            .when(configurationService).updateConfigurations(anyList());
+
+        assertThatThrownBy(() -> privilegeService.updatePrivileges(privileges("entity:\n  - key: ENTITY.CREATE\n")))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("git is not available");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> captureSavedConfigs() {
+        ArgumentCaptor<List<Configuration>> captor = ArgumentCaptor.forClass(List.class);
+        verify(configurationService).updateConfigurations(captor.capture());
+        return captor.getValue().stream().collect(Collectors.toMap(Configuration::getPath, Configuration::getContent));
+    }
+
+    private void mockConfig(String path, String content) {
+        when(configurationService.findConfiguration(path)).thenReturn(Optional.of(new Configuration(path, content)));
+    }
+
+    private void mockTenants(String appName, String... tenants) {
+        when(tenantService.getTenants(appName)).thenReturn(
+            Arrays.stream(tenants).map(tenant -> new TenantState(tenant, "ACTIVE")).collect(Collectors.toSet()));
+    }
+
+    private static Map<String, Set<Privilege>> privileges(String yml) {
+        return PrivilegeMapper.ymlToPrivileges(yml);
+    }
+
+    private static String permission(String appName, String privilegeKey) {
+        return appName + ":\n  ROLE_ADMIN:\n  - privilegeKey: \"" + privilegeKey + "\"\n"
+               + "    disabled: false\n    deleted: false\n";
+    }
+}
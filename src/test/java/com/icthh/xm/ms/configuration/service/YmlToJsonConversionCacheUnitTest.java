@@ -0,0 +1,85 @@
+package com.icthh.xm.ms.configuration.service;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.repository.impl.ConfigChangeJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Optional;
+
+@RunWith(MockitoJUnitRunner.class)
+public class YmlToJsonConversionCacheUnitTest {
+
+    private static final String WEBAPP_PATTERN = "/config/tenants/*/webapp/**";
+    private static final String SETTINGS_PATH = "/config/tenants/XM/webapp/settings-public.yml";
+
+    @Mock
+    private ConfigurationService configurationService;
+
+    private ConfigChangeJournal changeJournal;
+    private YmlToJsonConversionCache cache;
+
+    @Before
+    public void before() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getYmlToJson().setEagerPathPatterns(singletonList(WEBAPP_PATTERN));
+        changeJournal = new ConfigChangeJournal(applicationProperties);
+        cache = new YmlToJsonConversionCache(applicationProperties, changeJournal, configurationService,
+                                             new ConfigurationTreeCache(applicationProperties));
+    }
+
+    @After
+    public void after() {
+        cache.destroy();
+    }
+
+    @Test
+    public void convertOncePerContentHash() {
+        String json = cache.toJson("/config/tenants/XM/a.yml", "hash1", "key: value");
+        assertThat(json).isEqualTo("{\"key\":\"value\"}");
+        assertThat(cache.toJson("/config/tenants/XM/a.yml", "hash1", "key: other")).isSameAs(json);
+        assertThat(cache.toJson("/config/tenants/XM/a.yml", "hash2", "key: other")).isEqualTo("{\"key\":\"other\"}");
+    }
+
+    @Test
+    public void precomputeEagerPathsOnChange() throws InterruptedException {
+        Configuration configuration = new Configuration(SETTINGS_PATH, "key: value");
+        when(configurationService.getConfigurationMap(null, singletonList(WEBAPP_PATTERN)))
+            .thenReturn(singletonMap(SETTINGS_PATH, configuration));
+        when(configurationService.findConfiguration(SETTINGS_PATH)).thenReturn(Optional.of(configuration));
+        when(configurationService.getConfigurationHash(configuration)).thenReturn("hash1");
+        cache.init();
+        awaitCached(SETTINGS_PATH, "hash1");
+
+        assertThat(cache.toJson(SETTINGS_PATH, "hash1", "not used")).isEqualTo("{\"key\":\"value\"}");
+
+        Configuration updated = new Configuration(SETTINGS_PATH, "key: updated");
+        when(configurationService.findConfiguration(SETTINGS_PATH)).thenReturn(Optional.of(updated));
+        when(configurationService.getConfigurationHash(updated)).thenReturn("hash2");
+        changeJournal.record("commit2", "commit2-2", singleton(SETTINGS_PATH));
+        awaitCached(SETTINGS_PATH, "hash2");
+
+        assertThat(cache.toJson(SETTINGS_PATH, "hash2", "not used")).isEqualTo("{\"key\":\"updated\"}");
+        verify(configurationService, never()).findConfiguration("/config/tenants/XM/uaa/uaa.yml");
+    }
+
+    private void awaitCached(String path, String hash) throws InterruptedException {
+        for (int i = 0; i < 50 && !cache.isCached(path, hash); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(cache.isCached(path, hash)).isTrue();
+    }
+}
@@ -1,5 +1,6 @@
 package com.icthh.xm.ms.configuration.service.processors;
 
+import static java.lang.System.getenv;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
@@ -8,7 +9,10 @@ import static org.junit.Assert.assertEquals;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.service.ConfigurationTreeCache;
 import com.icthh.xm.ms.configuration.web.rest.TestUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.SneakyThrows;
 import org.junit.Rule;
 import org.junit.Test;
@@ -105,11 +109,50 @@ public class TenantConfigExternalizationUnitTest {
         assertEquals(86400, actual);
     }
 
+    @Test
+    public void reuseResultForUnchangedContent() {
+        environmentVariables.set("XM_inviteExpireTime", "123");
+        TenantConfigExternalization externalization = createExternalization();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        externalization.bindTo(registry);
+        Configuration configuration = new Configuration("/config/tenants/XM/tenant-config.yml",
+                                                        TestUtil.loadFile("tenant-config.yml"));
+
+        List<Configuration> first = externalization.processConfiguration(configuration, emptyMap(), emptyMap());
+        List<Configuration> second = externalization.processConfiguration(configuration, emptyMap(), emptyMap());
+        externalization.processConfiguration(new Configuration(configuration.getPath(), "inviteExpireTime: 1"),
+                                             emptyMap(), emptyMap());
+
+        assertEquals(first.get(0).getContent(), second.get(0).getContent());
+        assertEquals(1.0, registry.get("config.externalization.cache.hits").functionCounter().count(), 0);
+        assertEquals(2.0, registry.get("config.externalization.cache.misses").functionCounter().count(), 0);
+    }
+
+    @Test
+    public void forgetResultOfRemovedConfig() {
+        environmentVariables.set("XM_inviteExpireTime", "123");
+        TenantConfigExternalization externalization = createExternalization();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        externalization.bindTo(registry);
+        Configuration configuration = new Configuration("/config/tenants/XM/tenant-config.yml",
+                                                        TestUtil.loadFile("tenant-config.yml"));
+
+        externalization.processConfiguration(configuration, emptyMap(), emptyMap());
+        externalization.onRemove(configuration.getPath());
+        externalization.processConfiguration(configuration, emptyMap(), emptyMap());
+
+        assertEquals(0.0, registry.get("config.externalization.cache.hits").functionCounter().count(), 0);
+        assertEquals(2.0, registry.get("config.externalization.cache.misses").functionCounter().count(), 0);
+    }
+
+    private static TenantConfigExternalization createExternalization() {
+        return new TenantConfigExternalization(getenv(), new ConfigurationTreeCache(new ApplicationProperties()));
+    }
 
     @SneakyThrows
     private Object overrideParameterAndReturnResult(List<String> path) {
         Configuration configuration = new Configuration("/config/tenants/XM/tenant-config.yml", TestUtil.loadFile("tenant-config.yml"));
-        List<Configuration> processedConfigurations = new TenantConfigExternalization()
+        List<Configuration> processedConfigurations = createExternalization()
                 .processConfiguration(configuration, emptyMap(), emptyMap());
         Configuration processedConfiguration = configuration;
         if (!processedConfigurations.isEmpty()) {
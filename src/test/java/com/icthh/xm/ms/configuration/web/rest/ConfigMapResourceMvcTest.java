@@ -2,7 +2,10 @@ package com.icthh.xm.ms.configuration.web.rest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.config.ApplicationProperties;
+import com.icthh.xm.ms.configuration.service.ConfigMapSnapshotCache;
 import com.icthh.xm.ms.configuration.service.ConfigurationService;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -18,21 +21,33 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.refEq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(controllers = ConfigMapResource.class, secure = false)
-@ContextConfiguration(classes = ConfigMapResource.class)
+@ContextConfiguration(classes = {ConfigMapResource.class, ConfigMapSnapshotCache.class, ApplicationProperties.class})
 @WithMockUser(authorities = {"SUPER-ADMIN"})
 public class ConfigMapResourceMvcTest {
 
@@ -44,8 +59,8 @@ public class ConfigMapResourceMvcTest {
     @Test
     @SneakyThrows
     public void getConfigMap() {
-        when(configurationService.getConfigurationMap(null))
-            .thenReturn(Collections.singletonMap("path", new Configuration("path", "content")));
+        when(configurationService.getSerializedConfigurationMap(null))
+            .thenReturn(serialize("path", new Configuration("path", "content")));
 
         mockMvc.perform(get("/api/private/config_map")
             .contentType(MediaType.TEXT_PLAIN))
@@ -57,8 +72,8 @@ public class ConfigMapResourceMvcTest {
     @Test
     @SneakyThrows
     public void getConfigMapWithCommit() {
-        when(configurationService.getConfigurationMap("commit1"))
-            .thenReturn(Collections.singletonMap("path", new Configuration("path", "content")));
+        when(configurationService.getSerializedConfigurationMap("commit1"))
+            .thenReturn(serialize("path", new Configuration("path", "content")));
 
         mockMvc.perform(get("/api/private/config_map?version={commit}", "commit1")
             .contentType(MediaType.TEXT_PLAIN))
@@ -67,6 +82,106 @@ public class ConfigMapResourceMvcTest {
             .andExpect(jsonPath("$.path.content").value("content"));
     }
 
+    @Test
+    @SneakyThrows
+    public void getConfigMapWithETag() {
+        when(configurationService.getConfigurationMapVersion()).thenReturn("commit1-1");
+        when(configurationService.getSerializedConfigurationMap(null))
+            .thenReturn(serialize("path", new Configuration("path", "content")));
+
+        mockMvc.perform(get("/api/private/config_map")
+            .contentType(MediaType.TEXT_PLAIN))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", "\"commit1-1\""));
+    }
+
+    @Test
+    @SneakyThrows
+    public void getConfigMapNotModified() {
+        when(configurationService.getConfigurationMapVersion()).thenReturn("commit1-1");
+
+        mockMvc.perform(get("/api/private/config_map")
+            .header("If-None-Match", "\"commit1-1\"")
+            .contentType(MediaType.TEXT_PLAIN))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string("ETag", "\"commit1-1\""));
+        verify(configurationService, never()).getSerializedConfigurationMap(null);
+    }
+
+    @Test
+    @SneakyThrows
+    public void getConfigMapGzipSnapshot() {
+        when(configurationService.getConfigurationMapVersion()).thenReturn("commit1-2");
+        when(configurationService.getSerializedConfigurationMap(null))
+            .thenReturn(serialize("path", new Configuration("path", "content")));
+
+        for (int i = 0; i < 2; i++) {
+            byte[] content = mockMvc.perform(get("/api/private/config_map")
+                .header("Accept-Encoding", "gzip, deflate")
+                .contentType(MediaType.TEXT_PLAIN))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("ETag", "\"commit1-2\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+            Map<?, ?> configMap = new ObjectMapper().readValue(new GZIPInputStream(new ByteArrayInputStream(content)), Map.class);
+            assertEquals("content", ((Map<?, ?>) configMap.get("path")).get("content"));
+        }
+        verify(configurationService, times(1)).getSerializedConfigurationMap(null);
+    }
+
+    @Test
+    @SneakyThrows
+    public void getConfigMapSmile() {
+        when(configurationService.getConfigurationMapVersion()).thenReturn("commit1-2");
+        when(configurationService.getConfigurationMap(null))
+            .thenReturn(Collections.singletonMap("path", new Configuration("path", "content")));
+
+        byte[] content = mockMvc.perform(get("/api/private/config_map")
+            .header("Accept", "application/x-jackson-smile, application/json;q=0.9")
+            .header("Accept-Encoding", "gzip"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Type", "application/x-jackson-smile"))
+            .andExpect(header().string("ETag", "\"commit1-2-smile\""))
+            .andReturn().getResponse().getContentAsByteArray();
+
+        Map<?, ?> configMap = new ObjectMapper(new SmileFactory()).readValue(content, Map.class);
+        assertEquals("content", ((Map<?, ?>) configMap.get("path")).get("content"));
+        verify(configurationService, never()).getSerializedConfigurationMap(null);
+    }
+
+    @Test
+    @SneakyThrows
+    public void binaryFormatsDoNotCloseResponseStream() {
+        for (ConfigMapResource.ConfigMapFormat format : asList(ConfigMapResource.ConfigMapFormat.SMILE,
+                                                               ConfigMapResource.ConfigMapFormat.CBOR)) {
+            AtomicBoolean closed = new AtomicBoolean();
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            };
+
+            format.getMapper().writeValue(out, Collections.singletonMap("path", new Configuration("path", "content")));
+
+            assertFalse(format.name(), closed.get());
+            assertTrue(format.name(), out.size() > 0);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void getConfigMapJsonForWildcardAccept() {
+        when(configurationService.getSerializedConfigurationMap(null))
+            .thenReturn(serialize("path", new Configuration("path", "content")));
+
+        mockMvc.perform(get("/api/private/config_map")
+            .header("Accept", "application/json, */*"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.path.content").value("content"));
+    }
+
     @Getter
     @AllArgsConstructor
     private static class GetConfigRequest {
@@ -101,4 +216,8 @@ public class ConfigMapResourceMvcTest {
     private String toJson(Object object) throws JsonProcessingException {
         return new ObjectMapper().writeValueAsString(object);
     }
+
+    private List<byte[]> serialize(String path, Configuration configuration) throws JsonProcessingException {
+        return Collections.singletonList((toJson(path) + ":" + toJson(configuration)).getBytes(StandardCharsets.UTF_8));
+    }
 }
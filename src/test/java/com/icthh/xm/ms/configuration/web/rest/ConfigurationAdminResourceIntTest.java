@@ -149,6 +149,23 @@ public class ConfigurationAdminResourceIntTest extends AbstractSpringBootTest {
                 .andExpect(jsonPath("$.field").value("field value"));
     }
 
+    @Test
+    @SneakyThrows
+    public void testYmlPointer() {
+        mockMvc.perform(post(API_PREFIX + CONFIG + TENANTS + "/test/folder/subfolder/pointer.yml")
+                .content("root:\n  list:\n    - name: \"first\"\n    - name: \"second\"")
+                .contentType(MediaType.TEXT_PLAIN))
+                .andExpect(status().is2xxSuccessful());
+        mockMvc.perform(get(API_PREFIX + CONFIG + TENANTS + "/test/folder/subfolder/pointer.yml?pointer=/root/list/1/name")
+                .contentType(MediaType.TEXT_PLAIN))
+                .andExpect(status().is2xxSuccessful())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(content().string("\"second\""));
+        mockMvc.perform(get(API_PREFIX + CONFIG + TENANTS + "/test/folder/subfolder/pointer.yml?pointer=/root/unknown")
+                .contentType(MediaType.TEXT_PLAIN))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     @SneakyThrows
     public void testDeleteDocument() {
@@ -1,6 +1,10 @@
 package com.icthh.xm.ms.configuration.web.rest;
 
+import com.icthh.xm.commons.config.domain.Configuration;
+import com.icthh.xm.ms.configuration.domain.ConfigurationUploadProgress;
 import com.icthh.xm.ms.configuration.service.ConfigurationService;
+import com.icthh.xm.ms.configuration.service.ConfigurationTreeCache;
+import com.icthh.xm.ms.configuration.service.YmlToJsonConversionCache;
 import lombok.SneakyThrows;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -8,13 +12,26 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.function.Consumer;
+
 import static com.icthh.xm.ms.configuration.config.Constants.*;
+import static com.icthh.xm.ms.configuration.utils.RequestContextUtils.ANY_CONFIG_HASH;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.eq;
+import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpHeaders.IF_MATCH;
+import static org.springframework.http.MediaType.TEXT_PLAIN;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -25,6 +42,12 @@ public class ConfigurationAdminResourceMvcTest {
     @MockBean
     private ConfigurationService configurationService;
 
+    @MockBean
+    private YmlToJsonConversionCache ymlToJsonCache;
+
+    @MockBean
+    private ConfigurationTreeCache treeCache;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -48,4 +71,71 @@ public class ConfigurationAdminResourceMvcTest {
         Mockito.verify(configurationService).refreshConfiguration();
         Mockito.verifyNoMoreInteractions(configurationService);
     }
+
+    @Test
+    @SneakyThrows
+    public void updateWithJsonETagInIfMatch() {
+        mockMvc.perform(put(API_PREFIX + CONFIG + TENANTS + "/XM/settings.yml")
+                            .contentType(TEXT_PLAIN)
+                            .header(IF_MATCH, "\"abc-json\"")
+                            .content("key: value"))
+               .andExpect(status().isOk());
+
+        Mockito.verify(configurationService).updateConfiguration(any(Configuration.class), eq("abc"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void updateWithAnyETagInIfMatch() {
+        mockMvc.perform(put(API_PREFIX + CONFIG + TENANTS + "/XM/settings.yml")
+                            .contentType(TEXT_PLAIN)
+                            .header(IF_MATCH, "*")
+                            .content("key: value"))
+               .andExpect(status().isOk());
+
+        Mockito.verify(configurationService).updateConfiguration(any(Configuration.class), eq(ANY_CONFIG_HASH));
+    }
+
+    @Test
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    public void reportFailedBatchInNdjsonUpload() {
+        Mockito.doAnswer(invocation -> {
+            Consumer<ConfigurationUploadProgress> listener = invocation.getArgument(1);
+            listener.accept(new ConfigurationUploadProgress(1, 2, 1, 2, "commit1", null));
+            throw new IllegalStateException("git is not available");
+        }).when(configurationService).createConfigurations(anyList(), any(Consumer.class));
+
+        mockMvc.perform(multipart(API_PREFIX + CONFIG).file(uploadFile()).header(ACCEPT, APPLICATION_NDJSON_VALUE))
+               .andExpect(status().isOk())
+               .andExpect(content().string(
+                   "{\"saved\":1,\"total\":2,\"batch\":1,\"batches\":2,\"commit\":\"commit1\"}\n"
+                   + "{\"saved\":1,\"total\":2,\"batch\":2,\"batches\":2,\"error\":\"git is not available\"}\n"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void uploadWithoutProgressIfNdjsonNotAccepted() {
+        mockMvc.perform(multipart(API_PREFIX + CONFIG).file(uploadFile())
+                            .header(ACCEPT, APPLICATION_NDJSON_VALUE + ";q=0, application/json"))
+               .andExpect(status().isOk());
+
+        Mockito.verify(configurationService).createConfigurations(anyList());
+    }
+
+    private static MockMultipartFile uploadFile() {
+        return new MockMultipartFile("files", "/config/tenants/XM/settings.yml", "text/plain", "key: value".getBytes());
+    }
+
+    @Test
+    @SneakyThrows
+    public void patchWithInvalidBody() {
+        Mockito.when(configurationService.patchConfiguration("/config/tenants/XM/settings.yml", "{\"a\": ", null))
+               .thenThrow(new IllegalArgumentException("Invalid merge patch"));
+
+        mockMvc.perform(patch(API_PREFIX + CONFIG + TENANTS + "/XM/settings.yml")
+                            .contentType(MERGE_PATCH_JSON_VALUE)
+                            .content("{\"a\": "))
+               .andExpect(status().isBadRequest());
+    }
 }
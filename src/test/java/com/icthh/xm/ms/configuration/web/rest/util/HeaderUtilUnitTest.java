@@ -0,0 +1,50 @@
+package com.icthh.xm.ms.configuration.web.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+public class HeaderUtilUnitTest {
+
+    @Test
+    public void createETag() {
+        HttpHeaders headers = HeaderUtil.createETag("hash");
+        assertEquals("\"hash\"", headers.getETag());
+        assertNull(HeaderUtil.createETag(null).getETag());
+    }
+
+    @Test
+    public void toConfigHash() {
+        assertEquals("hash", HeaderUtil.toConfigHash("\"hash\""));
+        assertEquals("hash", HeaderUtil.toConfigHash("W/\"hash\""));
+        assertNull(HeaderUtil.toConfigHash(" "));
+        assertEquals("hash", HeaderUtil.toConfigHash("\"hash-json\""));
+        assertEquals("hash", HeaderUtil.toConfigHash("\"hash-pointer\""));
+        assertEquals("*", HeaderUtil.toConfigHash("*"));
+    }
+
+    @Test
+    public void isNotModified() {
+        assertTrue(HeaderUtil.isNotModified("\"hash\"", "hash"));
+        assertTrue(HeaderUtil.isNotModified("\"other\", W/\"hash\"", "hash"));
+        assertTrue(HeaderUtil.isNotModified("*", "hash"));
+        assertTrue(HeaderUtil.isNotModified("\"hash-json\"", "hash-json"));
+        assertFalse(HeaderUtil.isNotModified("\"other\"", "hash"));
+        assertFalse(HeaderUtil.isNotModified(null, "hash"));
+        assertFalse(HeaderUtil.isNotModified("\"hash\"", null));
+    }
+
+    @Test
+    public void acceptsEncoding() {
+        assertTrue(HeaderUtil.acceptsEncoding("gzip, deflate, br", "gzip"));
+        assertTrue(HeaderUtil.acceptsEncoding("deflate;q=0.5, GZIP;q=1.0", "gzip"));
+        assertTrue(HeaderUtil.acceptsEncoding("*", "gzip"));
+        assertFalse(HeaderUtil.acceptsEncoding("gzip;q=0", "gzip"));
+        assertFalse(HeaderUtil.acceptsEncoding("identity", "gzip"));
+        assertFalse(HeaderUtil.acceptsEncoding(null, "gzip"));
+    }
+}